@@ -1,7 +1,11 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { be5, changeDocument, registerPage } from 'be5-react';
 import { createPageValueLocal } from "../utils";
 
+// the server answers 503 while the diagram is still being rendered
+const DAG_RETRIES = 6;
+const DAG_RETRY_DELAY_MS = 5000;
+
 const ResourceDAGPage = (props) => {
   const data = props.value?.data?.attributes || props.value?.data || {};
   const id = data.id;
@@ -12,13 +16,26 @@ const ResourceDAGPage = (props) => {
   
   const [imageLoaded, setImageLoaded] = useState(false);
   const [imageError, setImageError] = useState(false);
+  const [attempt, setAttempt] = useState(0);
 
   useEffect(() => {
     // Сброс состояния при изменении данных
     setImageLoaded(false);
     setImageError(false);
+    setAttempt(0);
   }, [imageUrl]);
 
+  const retryTimer = useRef(null);
+  useEffect(() => () => clearTimeout(retryTimer.current), []);
+
+  const onImageError = () => {
+    if (attempt >= DAG_RETRIES) {
+      setImageError(true);
+      return;
+    }
+    retryTimer.current = setTimeout(() => setAttempt(attempt + 1), DAG_RETRY_DELAY_MS);
+  };
+
   if (isValid !== 'yes') {
     return (
       <div className="container">
@@ -52,11 +69,11 @@ const ResourceDAGPage = (props) => {
       )}
       
       <img 
-        src={imageUrl} 
+        src={attempt > 0 ? `${imageUrl}&attempt=${attempt}` : imageUrl} 
         alt="Resource DAG" 
         className="img-fluid"
         onLoad={() => setImageLoaded(true)}
-        onError={() => setImageError(true)}
+        onError={onImageError}
         style={{ display: imageLoaded ? 'block' : 'none' }}
       />
     </div>
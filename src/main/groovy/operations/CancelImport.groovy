@@ -0,0 +1,28 @@
+package operations
+
+import javax.inject.Inject
+
+import com.developmentontheedge.be5.operation.OperationResult
+import com.developmentontheedge.be5.server.operations.support.GOperationSupport
+
+import ru.genespace.importer.RepositoryImportService
+
+public class CancelImport extends GOperationSupport {
+
+    @Inject
+    RepositoryImportService importService
+
+    @Override
+    public void invoke(Object parameters) throws Exception {
+        def notActive = []
+        for ( int i=0 ; i < context.records.length ; ++i ) {
+            def jobID = context.records[i] as long
+            if(!importService.cancel(jobID))
+                notActive << jobID
+        }
+        if(notActive.isEmpty())
+            setResult(OperationResult.finished())
+        else
+            setResult(OperationResult.finished("Jobs are already completed: " + notActive.join(", ")))
+    }
+}
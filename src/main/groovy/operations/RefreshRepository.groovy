@@ -0,0 +1,23 @@
+package operations
+
+import javax.inject.Inject
+
+import com.developmentontheedge.be5.operation.OperationResult
+import com.developmentontheedge.be5.server.operations.support.GOperationSupport
+
+import ru.genespace.importer.RepositoryImportService
+
+public class RefreshRepository extends GOperationSupport {
+
+    @Inject
+    RepositoryImportService importService
+
+    @Override
+    public void invoke(Object parameters) throws Exception {
+        //only branches and tags moved to another commit are read again, progress is shown in importJobs
+        for ( int i=0 ; i < context.records.length ; ++i ) {
+            importService.submit(context.records[i] as long, RepositoryImportService.JobType.REFRESH)
+        }
+        setResult(OperationResult.finished("Repository is queued for refresh"))
+    }
+}
@@ -1,5 +1,9 @@
 package operations
 
+import java.util.concurrent.TimeUnit
+
+import javax.inject.Inject
+
 import com.developmentontheedge.be5.database.QRec
 import com.developmentontheedge.be5.databasemodel.util.DpsUtils
 import com.developmentontheedge.be5.operation.OperationResult
@@ -7,16 +11,30 @@ import com.developmentontheedge.be5.server.operations.support.GOperationSupport
 import com.developmentontheedge.beans.DynamicPropertySet as DPS
 import com.developmentontheedge.beans.DynamicPropertySetSupport
 
+import ru.genespace.content.CachedContentManager
+import ru.genespace.content.ContentCache
+import ru.genespace.importer.RepositoryImportService
+
 public class RemoveRepository extends GOperationSupport {
     Map<String, Object> presets
 
+    @Inject
+    RepositoryImportService importService
+
     @Override
     public void invoke(Object parameters) throws Exception {
         DPS params = parameters as DPS ?: new DynamicPropertySetSupport()
 
+        List<Object> importing = []
         for ( int i=0 ; i < context.records.length ; ++i ) {
             def repo = database.getEntity( getInfo().getEntity().name ).get( context.records[i] )
             def reID = repo.$ID
+            // a running import must not store its results after the repository is removed
+            if( !importService.cancelRepositoryJobs(repo.$ID as long, 60, TimeUnit.SECONDS) ) {
+                importing << repo.$ID
+                continue
+            }
+            database.importJobs.removeBy([repository: repo.$ID])
             database.repositories.removeBy([ID: repo.$ID])
 
             def versions = db.list("SELECT ID FROM versions WHERE repository=${repo.$ID}" )
@@ -37,12 +55,20 @@ public class RemoveRepository extends GOperationSupport {
             database.resources.removeBy([repository: repo.$ID])
             database.versions.removeBy([repository: repo.$ID])
             database.attachments.removeBy([ownerID: repo.$ID, ownerType: "repositories"])
+            ContentCache.getInstance().invalidate("repositories", repo.$ID as long)
         }
-        setResult(OperationResult.finished())
+        //content shared by versions is kept until the last attachment referring to it is removed
+        CachedContentManager.removeUnusedBlobs(db)
+        if( importing )
+            setResult(OperationResult.finished("Repositories with running import are not removed: " + importing.join(", ")))
+        else
+            setResult(OperationResult.finished())
     }
 
     private void removeAttachments(List<QRec> ids, String type) {
-        for(def id: ids)
+        for(def id: ids) {
             database.attachments.removeBy([ownerID: id.$ID, ownerType: type])
+            ContentCache.getInstance().invalidate(type, id.$ID as long)
+        }
     }
 }
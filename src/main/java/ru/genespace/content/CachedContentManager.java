@@ -5,17 +5,48 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
 import com.developmentontheedge.be5.database.DbService;
-import com.developmentontheedge.be5.database.QRec;
 
 public class CachedContentManager implements ContentManager
 {
+    private static final String SELECT_CONTENT = "SELECT COALESCE(a.data, b.data) AS data, a.mimeType AS mimeType, COALESCE(b.size, OCTET_LENGTH(a.data)) AS size"
+            + " FROM attachments a LEFT JOIN blobs b ON b.sha=a.blobSha WHERE a.ownerId=? AND a.ownerType=? AND a.fileName=? AND a.isFetched='yes'";
+    /**
+     * An existing blob is locked by the no-op update until the transaction ends, so that {@link #removeUnusedBlobs}
+     * can not delete it before the attachment referring to it is committed. DO NOTHING would not lock it.
+     */
+    public static final String INSERT_BLOB = "INSERT INTO blobs (sha, mimeType, size, data) VALUES (?,?,?,?) ON CONFLICT (sha) DO UPDATE SET sha=EXCLUDED.sha";
+    private static final String UNUSED_BLOBS = "NOT EXISTS (SELECT 1 FROM attachments a WHERE a.blobSha = b.sha)";
+    /**
+     * Larger files are spooled to a temporary file and not kept in memory
+     */
+    private static final long MAX_CACHED_FILE_SIZE = 4L * 1024 * 1024;
+    private static final ContentCache MEMORY = ContentCache.getInstance();
+
+    /**
+     * Receives stored content, the stream is requested only when the content exists
+     */
+    @FunctionalInterface
+    public interface ContentSink
+    {
+        OutputStream open(String mimeType) throws IOException;
+    }
+
     private Long ownerId;
     private String ownerType;
     private DbService db;
@@ -30,67 +61,250 @@ public class CachedContentManager implements ContentManager
     @Override
     public Object getFileContent(String fileName)
     {
-        QRec dbRec = db.recordWithParams( "SELECT data, mimeType FROM attachments WHERE ownerId=? AND ownerType=? AND fileName=? AND isFetched='yes'", ownerId, ownerType,
-                fileName );
-        if( dbRec != null && !dbRec.isEmpty() )
+        try
         {
-            try
+            ContentCache.Content content = MEMORY.get( ownerType, ownerId, fileName );
+            if( content == null )
             {
-                InputStream is = dbRec.getBinaryStream( "data" );
-                if( is == null )
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                String[] mimeType = new String[1];
+                if( !copyFromDatabase( fileName, type -> {
+                    mimeType[0] = type;
+                    return os;
+                } ) )
                     return null;
-                if( dbRec.getString( "mimeType" ).equals( "text/plain" ) )
-                {
-                    return new String( is.readAllBytes(), StandardCharsets.UTF_8 );
-                }
-                else if( dbRec.getString( "mimeType" ).equals( "image/png" ) )
-                {
-                    return ImageIO.read( is );
-                }
-                else
-                {
-                    return is;
-                }
+                content = new ContentCache.Content( mimeType[0], os.toByteArray() );
+            }
+            if( content.mimeType().equals( "text/plain" ) )
+            {
+                return new String( content.data(), StandardCharsets.UTF_8 );
+            }
+            else if( content.mimeType().equals( "image/png" ) )
+            {
+                return ImageIO.read( new ByteArrayInputStream( content.data() ) );
             }
-            catch (SQLException | IOException e)
+            else
             {
+                return new ByteArrayInputStream( content.data() );
             }
         }
+        catch (IOException e)
+        {
+        }
         return null;
     }
 
+    /**
+     * Copies stored content to the sink as is, without decoding it to a String or an image. Files up to
+     * {@link #MAX_CACHED_FILE_SIZE} are served from and put into {@link ContentCache}.
+     *
+     * @return false if there is no fetched content for the file
+     */
+    public boolean copyFileContent(String fileName, ContentSink sink) throws IOException
+    {
+        ContentCache.Content cached = MEMORY.get( ownerType, ownerId, fileName );
+        if( cached != null )
+        {
+            sink.open( cached.mimeType() ).write( cached.data() );
+            return true;
+        }
+        return copyFromDatabase( fileName, sink );
+    }
+
+    private boolean copyFromDatabase(String fileName, ContentSink sink) throws IOException
+    {
+        StoredContent stored = readFromDatabase( fileName );
+        if( stored == null )
+            return false;
+        // written after the connection is returned to the pool, a slow client must not hold it
+        try
+        {
+            if( stored.file() != null )
+                Files.copy( stored.file(), sink.open( stored.mimeType() ) );
+            else
+                sink.open( stored.mimeType() ).write( stored.data() );
+            return true;
+        }
+        finally
+        {
+            if( stored.file() != null )
+                Files.deleteIfExists( stored.file() );
+        }
+    }
+
+    /**
+     * Content read from the database, files larger than {@link #MAX_CACHED_FILE_SIZE} are spooled to a temporary file
+     */
+    private record StoredContent(String mimeType, byte[] data, Path file)
+    {
+    }
+
+    private StoredContent readFromDatabase(String fileName) throws IOException
+    {
+        // taken before the read, so that content replaced during the read is not cached
+        long generation = MEMORY.getGeneration();
+        try
+        {
+            return db.execute( conn -> {
+                try (PreparedStatement ps = conn.prepareStatement( SELECT_CONTENT ))
+                {
+                    ps.setLong( 1, ownerId );
+                    ps.setString( 2, ownerType );
+                    ps.setString( 3, fileName );
+                    try (ResultSet rs = ps.executeQuery())
+                    {
+                        if( !rs.next() )
+                            return null;
+                        try (InputStream is = rs.getBinaryStream( "data" ))
+                        {
+                            if( is == null )
+                                return null;
+                            String mimeType = rs.getString( "mimeType" );
+                            if( rs.getLong( "size" ) <= MAX_CACHED_FILE_SIZE )
+                            {
+                                byte[] data = is.readAllBytes();
+                                MEMORY.put( ownerType, ownerId, fileName, new ContentCache.Content( mimeType, data ), generation );
+                                return new StoredContent( mimeType, data, null );
+                            }
+                            Path file = Files.createTempFile( "content", null );
+                            try
+                            {
+                                Files.copy( is, file, StandardCopyOption.REPLACE_EXISTING );
+                            }
+                            catch (IOException e)
+                            {
+                                Files.deleteIfExists( file );
+                                throw e;
+                            }
+                            return new StoredContent( mimeType, null, file );
+                        }
+                    }
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException( e );
+                }
+            } );
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
     @Override
     public void setFileContent(String fileName, Object content)
     {
-        InputStream is = getInputStream( content );
-        InputStream is2 = getInputStream( content );
-        String mimeType = getContentType( content );
+        setFileContent( fileName, content, null );
+    }
+
+    /**
+     * Stores content in blobs under its Git blob SHA (once for all owners) and points the attachment to it.
+     */
+    public void setFileContent(String fileName, Object content, String description)
+    {
         db.execute( conn -> {
             boolean oldAC = conn.getAutoCommit();
             conn.setAutoCommit( false );
+            try
+            {
+                insertFileContent( conn, ownerId, ownerType, fileName, content, description );
+                conn.commit();
+                return true;
+            }
+            catch (SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+            finally
+            {
+                conn.setAutoCommit( oldAC );
+            }
+        } );
+        MEMORY.invalidate( ownerType, ownerId, fileName );
+    }
 
-            try (PreparedStatement ps = conn.prepareStatement( "INSERT INTO attachments (ownerId, ownerType, fileName, mimeType, data, isFetched) VALUES (?,?,?,?,?,'yes')"
-                    + " ON CONFLICT (ownerId, ownerType, fileName) DO UPDATE SET mimeType=?, data=?, isFetched='yes'" ))
+    /**
+     * Same as {@link #setFileContent(String, Object, String)}, but within the transaction of the caller.
+     */
+    public static void insertFileContent(Connection conn, long ownerId, String ownerType, String fileName, Object content, String description) throws SQLException
+    {
+        byte[] data = getBytes( content );
+        String sha = GitBlobSha.of( data );
+        String mimeType = getContentType( content );
+        try (PreparedStatement blobPs = conn.prepareStatement( INSERT_BLOB );
+                PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO attachments (ownerId, ownerType, fileName, mimeType, blobSha, data, description, isFetched) VALUES (?,?,?,?,?,NULL,?,'yes')"
+                                + " ON CONFLICT (ownerId, ownerType, fileName) DO UPDATE SET mimeType=EXCLUDED.mimeType, blobSha=EXCLUDED.blobSha, data=NULL,"
+                                + " description=COALESCE(EXCLUDED.description, attachments.description), isFetched='yes'" ))
+        {
+            blobPs.setString( 1, sha );
+            blobPs.setString( 2, mimeType );
+            blobPs.setLong( 3, data.length );
+            blobPs.setBytes( 4, data );
+            blobPs.executeUpdate();
+
+            ps.setLong( 1, ownerId );
+            ps.setString( 2, ownerType );
+            ps.setString( 3, fileName );
+            ps.setString( 4, mimeType );
+            ps.setString( 5, sha );
+            ps.setString( 6, description );
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes blobs no attachment refers to, in a transaction of its own
+     */
+    public static void removeUnusedBlobs(DbService db)
+    {
+        db.execute( conn -> {
+            boolean oldAC = conn.getAutoCommit();
+            conn.setAutoCommit( false );
+            try
+            {
+                removeUnusedBlobs( conn );
+                conn.commit();
+                return true;
+            }
+            catch (SQLException e)
             {
-                ps.setLong( 1, ownerId );
-                ps.setString( 2, ownerType );
-                ps.setString( 3, fileName );
-                ps.setString( 4, mimeType );
-                ps.setBinaryStream( 5, is );
-                ps.setString( 6, mimeType );
-                ps.setBinaryStream( 7, is2 );
-
-                return ps.execute();
+                conn.rollback();
+                throw e;
             }
             finally
             {
                 conn.setAutoCommit( oldAC );
             }
         } );
+    }
 
+    /**
+     * Removes blobs no attachment refers to, within the transaction of the caller. Unused blobs are locked first, the ones
+     * locked by a writer are skipped. They are deleted by the next statement, whose snapshot already contains
+     * attachments committed before the locks were taken, and writers coming later wait for the locks.
+     */
+    public static void removeUnusedBlobs(Connection conn) throws SQLException
+    {
+        List<String> unused = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement( "SELECT b.sha FROM blobs b WHERE " + UNUSED_BLOBS + " FOR UPDATE SKIP LOCKED" );
+                ResultSet rs = ps.executeQuery())
+        {
+            while( rs.next() )
+                unused.add( rs.getString( 1 ) );
+        }
+        if( unused.isEmpty() )
+            return;
+        try (PreparedStatement ps = conn.prepareStatement( "DELETE FROM blobs b WHERE b.sha = ANY(?) AND " + UNUSED_BLOBS ))
+        {
+            ps.setArray( 1, conn.createArrayOf( "varchar", unused.toArray() ) );
+            ps.executeUpdate();
+        }
     }
 
-    private InputStream getInputStream(Object content)
+    private static byte[] getBytes(Object content)
     {
         if( content instanceof BufferedImage )
         {
@@ -102,19 +316,19 @@ public class CachedContentManager implements ContentManager
             catch (IOException e)
             {
             }
-            return new ByteArrayInputStream( os.toByteArray() );
+            return os.toByteArray();
         }
         else if( content instanceof String )
         {
-            return new ByteArrayInputStream( ((String) content).getBytes() );
+            return ((String) content).getBytes( StandardCharsets.UTF_8 );
         }
         else
         {
-            return new ByteArrayInputStream( content.toString().getBytes() );
+            return content.toString().getBytes( StandardCharsets.UTF_8 );
         }
     }
 
-    private String getContentType(Object content)
+    private static String getContentType(Object content)
     {
         if( content instanceof BufferedImage )
         {
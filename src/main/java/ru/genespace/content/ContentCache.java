@@ -0,0 +1,123 @@
+package ru.genespace.content;
+
+import static com.developmentontheedge.be5.modules.monitoring.Metrics.METRIC_REGISTRY;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * In-memory tier in front of attachments, shared by all {@link CachedContentManager} instances.
+ * Keeps stored bytes of hot files (READMEs, DAG images) by owner and file name, evicting least recently used
+ * entries when the total size exceeds the limit. Hits, misses and evictions are reported to be5 metrics.
+ * <p>
+ * Content read from the database before an invalidation must not be put after it: readers take
+ * {@link #getGeneration()} before the read and pass it to {@link #put}, which drops the content if anything was
+ * invalidated in the meantime.
+ */
+public class ContentCache
+{
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final ContentCache INSTANCE = new ContentCache( DEFAULT_MAX_BYTES );
+
+    public static ContentCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public record Content(String mimeType, byte[] data)
+    {
+    }
+
+    private record Key(String ownerType, long ownerId, String fileName)
+    {
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Content> contents = new LinkedHashMap<>( 16, 0.75f, true );
+    private long bytes = 0;
+    private long generation = 0;
+
+    private final Counter hits = METRIC_REGISTRY.counter( MetricRegistry.name( ContentCache.class, "hits" ) );
+    private final Counter misses = METRIC_REGISTRY.counter( MetricRegistry.name( ContentCache.class, "misses" ) );
+    private final Counter evictions = METRIC_REGISTRY.counter( MetricRegistry.name( ContentCache.class, "evictions" ) );
+
+    ContentCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        METRIC_REGISTRY.gauge( MetricRegistry.name( ContentCache.class, "bytes" ), () -> (Gauge<Long>) this::getBytes );
+    }
+
+    public synchronized Content get(String ownerType, long ownerId, String fileName)
+    {
+        Content content = contents.get( new Key( ownerType, ownerId, fileName ) );
+        if( content != null )
+            hits.inc();
+        else
+            misses.inc();
+        return content;
+    }
+
+    /**
+     * @return stamp to be taken before the content is read from the database
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * @param readGeneration {@link #getGeneration()} taken before the content was read
+     */
+    public synchronized void put(String ownerType, long ownerId, String fileName, Content content, long readGeneration)
+    {
+        if( readGeneration != generation || content.data().length > maxBytes )
+            return;
+        Content previous = contents.put( new Key( ownerType, ownerId, fileName ), content );
+        if( previous != null )
+            bytes -= previous.data().length;
+        bytes += content.data().length;
+        Iterator<Map.Entry<Key, Content>> iterator = contents.entrySet().iterator();
+        while( bytes > maxBytes && iterator.hasNext() )
+        {
+            bytes -= iterator.next().getValue().data().length;
+            iterator.remove();
+            evictions.inc();
+        }
+    }
+
+    public synchronized void invalidate(String ownerType, long ownerId, String fileName)
+    {
+        generation++;
+        Content previous = contents.remove( new Key( ownerType, ownerId, fileName ) );
+        if( previous != null )
+            bytes -= previous.data().length;
+    }
+
+    /**
+     * Removes all files of the owner
+     */
+    public synchronized void invalidate(String ownerType, long ownerId)
+    {
+        generation++;
+        Iterator<Map.Entry<Key, Content>> iterator = contents.entrySet().iterator();
+        while( iterator.hasNext() )
+        {
+            Map.Entry<Key, Content> entry = iterator.next();
+            if( entry.getKey().ownerId() == ownerId && entry.getKey().ownerType().equals( ownerType ) )
+            {
+                bytes -= entry.getValue().data().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.genespace.content;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes Git blob object id (SHA-1 of "blob &lt;size&gt;\0" followed by content) of the stored bytes, it is used as
+ * their content address. Text is stored and hashed as UTF-8, so for a file in another encoding the result differs
+ * from the SHA of the blob in GitHub.
+ */
+public final class GitBlobSha
+{
+    private GitBlobSha()
+    {
+    }
+
+    public static String of(byte[] data)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            digest.update( ("blob " + data.length + "\0").getBytes( StandardCharsets.US_ASCII ) );
+            digest.update( data );
+            return HexFormat.of().formatHex( digest.digest() );
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public static String of(String content)
+    {
+        return of( content.getBytes( StandardCharsets.UTF_8 ) );
+    }
+}
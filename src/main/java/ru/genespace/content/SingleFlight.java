@@ -0,0 +1,100 @@
+package ru.genespace.content;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coalesces concurrent loads of the same key: only one loader runs, other callers wait for its result.
+ * The result is not kept after the load is finished, caching is up to the loader.
+ *
+ * @param <K> key
+ * @param <V> loaded value
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the loader in the calling thread unless a load of the key is in progress, then waits for that load
+     *
+     * @return value loaded by this or concurrent call
+     * @throws Exception thrown by the loader
+     */
+    public V execute(K key, Callable<V> loader) throws Exception
+    {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent( key, created );
+        if( running != null )
+        {
+            try
+            {
+                return running.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        V value;
+        try
+        {
+            value = loader.call();
+        }
+        catch (Throwable t)
+        {
+            // removed before completion, so that a caller coming after the failure loads again
+            inFlight.remove( key, created );
+            created.completeExceptionally( t );
+            throw t;
+        }
+        inFlight.remove( key, created );
+        created.complete( value );
+        return value;
+    }
+
+    /**
+     * Runs the loader by the executor unless a load of the key is in progress
+     *
+     * @return future of this or concurrent load
+     */
+    public CompletableFuture<V> submit(K key, Callable<V> loader, Executor executor)
+    {
+        CompletableFuture<V> running = inFlight.get( key );
+        if( running != null )
+            return running;
+        CompletableFuture<V> created = new CompletableFuture<>();
+        running = inFlight.putIfAbsent( key, created );
+        if( running != null )
+            return running;
+        try
+        {
+            executor.execute( () -> {
+                V value;
+                try
+                {
+                    value = loader.call();
+                }
+                catch (Throwable t)
+                {
+                    inFlight.remove( key, created );
+                    created.completeExceptionally( t );
+                    return;
+                }
+                inFlight.remove( key, created );
+                created.complete( value );
+            } );
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the key must not stay taken by a load which never runs
+            inFlight.remove( key, created );
+            created.completeExceptionally( e );
+        }
+        return created;
+    }
+}
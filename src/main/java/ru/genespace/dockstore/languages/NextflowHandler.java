@@ -27,12 +27,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -58,6 +58,8 @@ import biouml.plugins.wdl.nextflow.NextFlowRunner;
 import groovyjarjarantlr.RecognitionException;
 import groovyjarjarantlr.TokenStreamException;
 import groovyjarjarantlr.collections.AST;
+import ru.genespace.content.GitBlobSha;
+import ru.genespace.content.SingleFlight;
 import ru.genespace.dockstore.Author;
 import ru.genespace.dockstore.DescriptionSource;
 import ru.genespace.dockstore.DescriptorLanguage;
@@ -78,6 +80,20 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
 
     protected static final Pattern IMPORT_PATTERN = Pattern.compile("^\\s*include.+?from.+?'.+?'", Pattern.DOTALL | Pattern.MULTILINE);
     private static final Pattern INCLUDE_CONFIG_PATTERN = Pattern.compile("(?i)(?m)^[ \t]*includeConfig(.*)");
+    private static final int MAXIMUM_CONFIGS_IN_MEMORY = 256;
+    /**
+     * Evaluated nextflow.config properties by Git blob SHA of the config content without includeConfig lines. Values
+     * are immutable, so a caller can not change the configuration seen by the others.
+     */
+    private static final Map<String, Map<String, String>> CONFIGS = Collections.synchronizedMap( new LinkedHashMap<>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest)
+        {
+            return size() > MAXIMUM_CONFIGS_IN_MEMORY;
+        }
+    } );
+    private static final SingleFlight<String, Map<String, String>> CONFIG_LOADS = new SingleFlight<>();
 
     @Override
     protected DescriptorLanguage.FileType getFileType() {
@@ -88,7 +104,7 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
     public WorkflowVersion parseWorkflowContent(String filepath, String content, Set<SourceFile> sourceFiles, WorkflowVersion version)
     {
         //this is where we can look for things like Nextflow config files or maybe a future Dockstore.yml
-        final Configuration configuration = grabConfig( content, String.valueOf( version.getId() ) );
+        final Configuration configuration = grabConfig( content );
         String descriptionInProgress = null;
         if( configuration.containsKey( "manifest.description" ) )
         {
@@ -130,9 +146,7 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
 
     public String getMainWorkflowScript(String mainDescriptorContent, String repositoryId, String repositoryRef, StringContentProvider scp, String filepath)
     {
-        Random random = new Random();
-        long randomLong = random.nextLong();
-        final Configuration configuration = grabConfig( mainDescriptorContent, String.valueOf( randomLong ) );
+        final Configuration configuration = grabConfig( mainDescriptorContent );
         String mainScriptPath = getMainScriptPath( configuration );
         String correctedPath = unsafeConvertRelativePathToAbsolutePath( filepath, mainScriptPath );
         return scp.getFileContent( repositoryId, repositoryRef, correctedPath );
@@ -177,7 +191,7 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
         Configuration configuration;
         try
         {
-            configuration = grabConfig( content, repositoryId );
+            configuration = grabConfig( content );
 
         }
         catch (Exception e)
@@ -218,29 +232,62 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
 
     /**
      * @param content the content of the config file
-     * @param id
-     * @return a commons configuration file with the keys from the nextflow config file
+     * @return a commons configuration file with the keys from the nextflow config file, owned by the caller
      */
-    public static Configuration grabConfig(String content, String id)
+    public static Configuration grabConfig(String content)
+    {
+        // FIXME: this sucks, but we need to ignore includeConfig lines. We basically have a chicken and the egg problem
+        // FIXME: the nextflow config command only works when all included files are present, however we're trying to
+        // FIXME: use the nextflow config command to figure out what the list of included files is to
+        // FIXME: determine what files we want to get from the GitHub API in the first place
+        // FIXME: secondary case: when looking for description and author, we don't actually need includes either
+        String newContent = content.replaceAll( "(?i)(?m)^[ \t]*includeConfig.*", "" );
+        // the same config is evaluated several times per version and is usually the same across versions
+        String key = GitBlobSha.of( newContent );
+        Map<String, String> properties = CONFIGS.get( key );
+        if( properties == null )
+        {
+            try
+            {
+                properties = CONFIG_LOADS.execute( key, () -> {
+                    // the evaluation is named after the content, it does not depend on the version or repository
+                    Properties evaluated = evaluateConfig( newContent, key );
+                    Map<String, String> snapshot = new HashMap<>();
+                    for ( String name : evaluated.stringPropertyNames() )
+                        snapshot.put( name, evaluated.getProperty( name ) );
+                    Map<String, String> immutable = Map.copyOf( snapshot );
+                    CONFIGS.put( key, immutable );
+                    return immutable;
+                } );
+            }
+            catch (CustomLoggedException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new CustomLoggedException( "Unable to get nexflow config: " + e.getMessage() );
+            }
+        }
+        // every caller gets a configuration over its own properties
+        Properties copy = new Properties();
+        copy.putAll( properties );
+        return ConfigurationConverter.getConfiguration( copy );
+    }
+
+    private static Properties evaluateConfig(String content, String id)
     {
         Path nextflowDir = null;
         try
         {
-            // FIXME: this sucks, but we need to ignore includeConfig lines. We basically have a chicken and the egg problem
-            // FIXME: the nextflow config command only works when all included files are present, however we're trying to
-            // FIXME: use the nextflow config command to figure out what the list of included files is to
-            // FIXME: determine what files we want to get from the GitHub API in the first place
-            // FIXME: secondary case: when looking for description and author, we don't actually need includes either
-            String newContent = content.replaceAll( "(?i)(?m)^[ \t]*includeConfig.*", "" );
             // needed since Nextflow binary assumes content is in working directory
             nextflowDir = Files.createTempDirectory( "nextflow" );
             final Path tempFile = Paths.get( nextflowDir.toString(), "nextflow.config" );
-            Files.write( tempFile, newContent.getBytes( StandardCharsets.UTF_8 ) );
+            Files.write( tempFile, content.getBytes( StandardCharsets.UTF_8 ) );
             boolean isWindows = System.getProperty( "os.name" ).startsWith( "Windows" );
             try
             {
-                Properties properties = NextFlowRunner.getNextflowConfig( tempFile.toFile(), id, true, isWindows );
-                return ConfigurationConverter.getConfiguration( properties );
+                return NextFlowRunner.getNextflowConfig( tempFile.toFile(), id, true, isWindows );
             }
             catch (Exception e)
             {
@@ -783,7 +830,7 @@ public class NextflowHandler extends AbstractLanguageHandler implements Language
         Configuration configuration;
         try
         {
-            configuration = grabConfig( mainDescriptor, repositoryId );
+            configuration = grabConfig( mainDescriptor );
         }
         catch (Exception e)
         {
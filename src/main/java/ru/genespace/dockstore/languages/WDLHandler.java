@@ -15,16 +15,11 @@
  */
 package ru.genespace.dockstore.languages;
 
-import static java.nio.file.attribute.PosixFilePermissions.asFileAttribute;
-import static java.nio.file.attribute.PosixFilePermissions.fromString;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.attribute.FileAttribute;
-import java.nio.file.attribute.PosixFilePermission;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -46,12 +41,10 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
 
 import biouml.plugins.wdl.diagram.WDLImporter;
 import biouml.plugins.wdl.model.ScriptInfo;
@@ -284,7 +277,7 @@ public class WDLHandler implements LanguageHandlerInterface {
      */
     public VersionTypeValidation validateEntrySet(Set<SourceFile> sourcefiles, String primaryDescriptorFilePath, String type)
     {
-        File tempMainDescriptor = null;
+        boolean descriptorRead = false;
         String mainDescriptor = null;
 
         List<DescriptorLanguage.FileType> fileTypes = new ArrayList<>( Collections.singletonList( DescriptorLanguage.FileType.DOCKSTORE_WDL ) );
@@ -342,9 +335,8 @@ public class WDLHandler implements LanguageHandlerInterface {
                         secondaryDescContent.put( sourceFile.getAbsolutePath(), sourceFile.getContent() );
                     }
                 }
-                tempMainDescriptor = createTempFile( "main", DESCRIPTOR_SUFFIX );
-                Files.asCharSink( tempMainDescriptor, StandardCharsets.UTF_8 ).write( mainDescriptor );
-                String content = FileUtils.readFileToString( tempMainDescriptor, StandardCharsets.UTF_8 );
+                descriptorRead = true;
+                String content = mainDescriptor;
                 try
                 {
                     checkForRecursiveHTTPImports( content, new HashSet<>() );
@@ -367,16 +359,16 @@ public class WDLHandler implements LanguageHandlerInterface {
 
                 if( Objects.equals( type, "tool" ) )
                 {
-                    wdlBridge.validateTool( tempMainDescriptor.getAbsolutePath(), primaryDescriptorFilePath );
+                    wdlBridge.validateTool( content, primaryDescriptorFilePath );
                 }
                 else
                 {
-                    wdlBridge.validateWorkflow( tempMainDescriptor.getAbsolutePath(), primaryDescriptor.get().getAbsolutePath() );
+                    wdlBridge.validateWorkflow( content, primaryDescriptor.get().getAbsolutePath() );
                 }
             }
             catch (/*WdlParser.SyntaxError | */Exception e)
             {
-                if( tempMainDescriptor != null )
+                if( descriptorRead )
                 {
                     String errorMessage = "WDL file is malformed or missing: " + e.getMessage();
                     validationMessageObject.put( primaryDescriptorFilePath, errorMessage );
@@ -974,31 +966,6 @@ public class WDLHandler implements LanguageHandlerInterface {
         throw new CustomLoggedException( ERROR_PARSING_WORKFLOW_YOU_MAY_HAVE_A_RECURSIVE_IMPORT );
     }
 
-    /**
-     * Securely creates a temporary file, using pattern recommended by SonarCloud
-     *
-     * @param suffix
-     * @param prefix
-     * @return a temporary file
-     * @throws IOException
-     */
-    private static File createTempFile(String prefix, String suffix) throws IOException
-    {
-        if( SystemUtils.IS_OS_UNIX )
-        {
-            FileAttribute<Set<PosixFilePermission>> attr = asFileAttribute( fromString( "rwx------" ) );
-            return java.nio.file.Files.createTempFile( prefix, suffix, attr ).toFile();
-        }
-        else
-        {
-            File f = java.nio.file.Files.createTempFile( prefix, suffix ).toFile(); //NOSONAR - Next line addresses the security issue by limiting file permissions to this user
-            if( !f.setReadable( true, true ) || !f.setWritable( true, true ) || !f.setExecutable( true, true ) )
-            {
-                throw new IOException( "Error limiting permissions for temporary file" );
-            }
-            return f;
-        }
-    }
     record FileInputs(String name, String type, Set<String> values)
     {
     }
@@ -1,19 +1,23 @@
 package ru.genespace.dockstore.languages;
 
-import java.io.File;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.Map;
 
+import org.apache.commons.io.IOUtils;
+
 import biouml.plugins.wdl.diagram.WDLImporter;
-import biouml.plugins.wdl.parser.AstStart;
 import biouml.plugins.wdl.parser.WDLParser;
-import ru.biosoft.util.ApplicationUtils;
 
 //This is STUB class for WDL validation. 
 //TODO: Use biouml.plugins.wdl reading and validation in auto-generated methods
 
 public class WdlBridge
 {
+    /**
+     * Parser is reinitialized by each parse call but is not thread-safe, so every validating thread keeps its own
+     */
+    private static final ThreadLocal<WDLParser> PARSER = ThreadLocal.withInitial( WDLParser::new );
 
     //Map of path - content of secondary files, may be needed when parsing WDL
     private Map<String, String> secondaryFiles;
@@ -28,18 +32,34 @@ public class WdlBridge
         this.secondaryFiles = secondaryFiles;
     }
 
-    public void validateTool(String absolutePath, String primaryDescriptorFilePath)
+    public void validateTool(String content, String primaryDescriptorFilePath)
     {
         // TODO Auto-generated method stub
 
     }
 
-    public void validateWorkflow(String absolutePath, String absolutePath2) throws Exception
+    public void validateWorkflow(Reader content, String primaryDescriptorPath) throws Exception
+    {
+        validateWorkflow( IOUtils.toString( content ), primaryDescriptorPath );
+    }
+
+    /**
+     * @param content WDL content of the primary descriptor
+     * @param primaryDescriptorPath absolute path of the primary descriptor
+     */
+    public void validateWorkflow(String content, String primaryDescriptorPath) throws Exception
     {
-        File wdlFile = new File( absolutePath );
-        String content = WDLImporter.processContent( ApplicationUtils.readAsString( wdlFile ) );
-        WDLParser parser = new WDLParser();
-        AstStart start = parser.parse( new StringReader( content ) );
+        WDLParser parser = PARSER.get();
+        try
+        {
+            parser.parse( new StringReader( WDLImporter.processContent( content ) ) );
+        }
+        catch (Exception | Error e)
+        {
+            // parser state after a failure is unknown, next validation on this thread starts with a new one
+            PARSER.remove();
+            throw e;
+        }
         version = parser.getVersion();
     }
 
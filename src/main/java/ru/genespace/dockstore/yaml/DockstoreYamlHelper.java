@@ -11,33 +11,39 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.io.StringReader;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.text.similarity.LevenshteinDistance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.BaseConstructor;
 import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.constructor.SafeConstructor;
 import org.yaml.snakeyaml.error.YAMLException;
 import org.yaml.snakeyaml.introspector.Property;
 import org.yaml.snakeyaml.introspector.PropertyUtils;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.representer.Representer;
 
 import com.developmentontheedge.beans.util.Beans;
@@ -50,6 +56,7 @@ public final class DockstoreYamlHelper {
     public static final String NO_SINGLE_ARGUMENT_CONSTRUCTOR_YAML_EXCEPTION_MESSAGE = "No single argument constructor found for interface java.util.List";
     public static final String BETTER_NO_SINGLE_ARGUMENT_CONSTRUCTOR_YAML_EXCEPTION_MESSAGE = "This property must be set to a list of values in YAML format";
     private static final int INVALID_VALUE_ECHO_LIMIT = 80;
+    private static final Map<Class<? extends DockstoreYaml>, PropertySuggestionIndex> PROPERTY_INDEXES = new ConcurrentHashMap<>();
 
     enum Version {
         ONE_ZERO("1.0") {
@@ -146,15 +153,7 @@ public final class DockstoreYamlHelper {
      * @throws DockstoreYamlException
      */
     public static DockstoreYaml10 readDockstoreYaml10(final String content) throws DockstoreYamlException {
-        Constructor constructor = new Constructor(DockstoreYaml10.class, new LoaderOptions());
-        constructor.setPropertyUtils(new PropertyUtils() {
-            @Override
-            public Property getProperty(Class<?> type, String name) {
-                return super.getProperty(type, "class".equals(name) ? "clazz" : name);
-            }
-
-        });
-        return readContent(content, constructor, true);
+        return readContent(content, DockstoreYaml10.class, true);
     }
 
     static DockstoreYaml readDockstoreYaml(final String content, boolean validateEntries) throws DockstoreYamlException {
@@ -212,31 +211,32 @@ public final class DockstoreYamlHelper {
 
 
     private static DockstoreYaml11 readDockstoreYaml11(final String content) throws DockstoreYamlException {
-        return readContent(content, new Constructor(DockstoreYaml11.class, new LoaderOptions()), true);
+        return readContent(content, DockstoreYaml11.class, true);
     }
 
     private static DockstoreYaml12 readDockstoreYaml12(final String content) throws DockstoreYamlException {
-        return readContent(content, new Constructor(DockstoreYaml12.class, new LoaderOptions()), true);
+        return readContent(content, DockstoreYaml12.class, true);
     }
 
-    private static <T> T readContent(final String content, final Constructor constructor, final boolean skipUnknownProperties) throws DockstoreYamlException {
+    /**
+     * Parses the content into a node tree once, checks the tree for unsafe types and constructs the typed object from it.
+     */
+    private static <T> T readContent(final String content, final Class<T> type, final boolean skipUnknownProperties) throws DockstoreYamlException {
         try {
+            final YamlLoader loader = YamlLoader.get();
+            final Node node = loader.compose(content);
+            if (node == null) {
+                return null;
+            }
             // first check to make sure there aren't any unsafe types
-            final Yaml safeYaml = new Yaml(new SafeConstructor(new LoaderOptions()));
-            safeYaml.load(content);
-            Representer representer = new Representer(new DumperOptions());
-            representer.getPropertyUtils().setSkipMissingProperties(skipUnknownProperties);
-            DumperOptions dumperOptions = new DumperOptions();
-            LoaderOptions loaderOptions = new LoaderOptions();
-            loaderOptions.setAllowDuplicateKeys(false);
-            final Yaml yaml = new Yaml(constructor, representer, dumperOptions, loaderOptions);
-            return yaml.load(content);
+            loader.checkSafe(node);
+            return type.cast(loader.construct(node, type, skipUnknownProperties));
         } catch (Exception e) {
             final String exceptionMsg = getFilteredExceptionMessage(e);
             if (LOG.isDebugEnabled()) {
                 LOG.error(ERROR_READING_DOCKSTORE_YML + exceptionMsg, e);
             }
-            throw new DockstoreYamlException(exceptionMsg);
+            throw new DockstoreYamlException(exceptionMsg, e);
         }
     }
 
@@ -270,7 +270,7 @@ public final class DockstoreYamlHelper {
      */
     private static void checkForUnknownProperty(final Class<? extends DockstoreYaml> dockstoreYamlClass, final String content) throws DockstoreYamlException {
         try {
-            readContent(content, new Constructor(dockstoreYamlClass, new LoaderOptions()), false);
+            readContent(content, dockstoreYamlClass, false);
         } catch (DockstoreYamlException ex) {
             String exceptionMessage = ex.getMessage();
             final Matcher matcher = WRONG_KEY_PATTERN.matcher(exceptionMessage);
@@ -297,30 +297,19 @@ public final class DockstoreYamlHelper {
      * @return A suggested property if one is found or an empty string if a suggested property cannot be found.
      */
     public static String getSuggestedDockstoreYamlProperty(Class<? extends DockstoreYaml> dockstoreYamlClass, String unknownProperty) {
-        Set<String> validProperties = getDockstoreYamlProperties(dockstoreYamlClass);
-        LevenshteinDistance levenshteinDistance = new LevenshteinDistance();
-        int shortestDistance = Integer.MAX_VALUE;
-        String shortestDistanceProperty = "";
+        PropertySuggestionIndex index = getPropertyIndex(dockstoreYamlClass);
 
-        if (validProperties.contains(unknownProperty) || unknownProperty.isEmpty()) {
+        if (index.getProperties().contains(unknownProperty) || unknownProperty.isEmpty()) {
             return unknownProperty;
         }
 
-        for (String validProperty : validProperties) {
-            int distance = levenshteinDistance.apply(unknownProperty, validProperty);
-            if (distance < shortestDistance) {
-                shortestDistance = distance;
-                shortestDistanceProperty = validProperty;
-            }
-        }
-
         // Return the property if the number of changes needed to be made is less than the length of the unknown property.
         // This is to prevent suggestions that don't make sense.
-        if (shortestDistance < unknownProperty.length()) {
-            return shortestDistanceProperty;
-        } else {
-            return "";
-        }
+        return index.findClosest(unknownProperty, unknownProperty.length() - 1);
+    }
+
+    private static PropertySuggestionIndex getPropertyIndex(Class<? extends DockstoreYaml> dockstoreYamlClass) {
+        return PROPERTY_INDEXES.computeIfAbsent(dockstoreYamlClass, c -> new PropertySuggestionIndex(collectDockstoreYamlProperties(c)));
     }
 
     /**
@@ -328,9 +317,13 @@ public final class DockstoreYamlHelper {
      * The convention that makes this work is that all the property fields in the DockstoreYaml classes are private.
      * Uses bread-first search to find all the classes.
      * @param dockstoreYamlClass The DockstoreYaml class. Allowed values: DockstoreYaml12.class, DockstoreYaml11.class
-     * @return A set of properties belonging to the .dockstore.yml version
+     * @return An immutable set of properties belonging to the .dockstore.yml version, computed once per class
      */
     public static Set<String> getDockstoreYamlProperties(Class<? extends DockstoreYaml> dockstoreYamlClass) {
+        return getPropertyIndex(dockstoreYamlClass).getProperties();
+    }
+
+    private static Set<String> collectDockstoreYamlProperties(Class<? extends DockstoreYaml> dockstoreYamlClass) {
         Set<String> properties = new HashSet<>();
         Queue<Class> dockstoreYmlPropertiesQueue = new ArrayDeque<>(); // A queue to process the property classes
         List<Class> discoveredClasses = new ArrayList<>();
@@ -486,8 +479,19 @@ public final class DockstoreYamlHelper {
     }
 
     private static Validator createValidator() {
-        final ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory();
-        return validatorFactory.getValidator();
+        return ValidatorHolder.VALIDATOR;
+    }
+
+    /**
+     * Validator is thread-safe and costly to build, so it is created once on first use
+     */
+    private static final class ValidatorHolder {
+        private static final Validator VALIDATOR = buildValidator();
+
+        private static Validator buildValidator() {
+            final ValidatorFactory validatorFactory = Validation.buildDefaultValidatorFactory();
+            return validatorFactory.getValidator();
+        }
     }
 
     /**
@@ -535,10 +539,111 @@ public final class DockstoreYamlHelper {
         });
     }
 
+    /**
+     * Per-thread SnakeYAML objects. Constructors keep state while constructing a document and are not thread-safe,
+     * but they can be reused for the next document, so their introspected property metadata is kept.
+     */
+    private static final class YamlLoader {
+        private static final ThreadLocal<YamlLoader> LOADERS = ThreadLocal.withInitial(YamlLoader::new);
+
+        private final LoaderOptions loaderOptions = createLoaderOptions();
+        private final Yaml composer = new Yaml(new SafeConstructor(loaderOptions), new Representer(new DumperOptions()), new DumperOptions(), loaderOptions);
+        // same options as the typed pass: a constructor allowing duplicate keys removes them from the shared tree
+        private final NodeSafeConstructor safeConstructor = new NodeSafeConstructor(loaderOptions);
+        private final Map<Class<?>, NodeConstructor> constructors = new HashMap<>();
+        private final Map<Class<?>, NodeConstructor> strictConstructors = new HashMap<>();
+
+        static YamlLoader get() {
+            return LOADERS.get();
+        }
+
+        private static LoaderOptions createLoaderOptions() {
+            LoaderOptions options = new LoaderOptions();
+            options.setAllowDuplicateKeys(false);
+            return options;
+        }
+
+        Node compose(String content) {
+            return composer.compose(new StringReader(content));
+        }
+
+        /**
+         * Constructs plain maps and lists from the tree, fails on tags of arbitrary classes
+         */
+        void checkSafe(Node node) {
+            safeConstructor.construct(node);
+        }
+
+        Object construct(Node node, Class<?> type, boolean skipUnknownProperties) {
+            Map<Class<?>, NodeConstructor> cache = skipUnknownProperties ? constructors : strictConstructors;
+            return cache.computeIfAbsent(type, t -> createConstructor(t, skipUnknownProperties)).construct(node);
+        }
+
+        private NodeConstructor createConstructor(Class<?> type, boolean skipUnknownProperties) {
+            NodeConstructor constructor = new NodeConstructor(type, loaderOptions);
+            if (type == DockstoreYaml10.class) {
+                constructor.setPropertyUtils(new PropertyUtils() {
+                    @Override
+                    public Property getProperty(Class<?> type, String name) {
+                        return super.getProperty(type, "class".equals(name) ? "clazz" : name);
+                    }
+
+                });
+            } else {
+                PropertyUtils propertyUtils = new PropertyUtils();
+                propertyUtils.setSkipMissingProperties(skipUnknownProperties);
+                constructor.setPropertyUtils(propertyUtils);
+            }
+            return constructor;
+        }
+    }
+
+    /**
+     * Constructors take these options from {@link Yaml}, not from their own LoaderOptions, so ones used without it
+     * would allow duplicate keys
+     */
+    private static void applyOptions(BaseConstructor constructor, LoaderOptions loaderOptions) {
+        constructor.setAllowDuplicateKeys(loaderOptions.isAllowDuplicateKeys());
+        constructor.setWrappedToRootException(loaderOptions.isWrappedToRootException());
+    }
+
+    private static final class NodeSafeConstructor extends SafeConstructor {
+        NodeSafeConstructor(LoaderOptions loaderOptions) {
+            super(loaderOptions);
+            applyOptions(this, loaderOptions);
+        }
+
+        Object construct(Node node) {
+            return constructDocument(node);
+        }
+    }
+
+    /**
+     * Constructs the root type from an already composed tree, like {@link Constructor#getSingleData(Class)} does from a stream
+     */
+    private static final class NodeConstructor extends Constructor {
+        private final Tag typeTag;
+
+        NodeConstructor(Class<?> type, LoaderOptions loaderOptions) {
+            super(type, loaderOptions);
+            applyOptions(this, loaderOptions);
+            typeTag = new Tag(type);
+        }
+
+        Object construct(Node node) {
+            node.setTag(typeTag);
+            return constructDocument(node);
+        }
+    }
+
     public static class DockstoreYamlException extends Exception {
         public DockstoreYamlException(final String msg) {
             super(msg);
         }
+
+        public DockstoreYamlException(final String msg, final Throwable cause) {
+            super(msg, cause);
+        }
     }
 
 }
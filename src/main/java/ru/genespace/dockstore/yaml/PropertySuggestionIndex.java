@@ -0,0 +1,99 @@
+package ru.genespace.dockstore.yaml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.text.similarity.LevenshteinDistance;
+
+/**
+ * Immutable set of .dockstore.yml property names with a BK-tree over their Levenshtein distances, so that the closest
+ * property to a typo is found by visiting a few nodes instead of measuring the distance to every property.
+ */
+final class PropertySuggestionIndex {
+
+    private static final LevenshteinDistance LEVENSHTEIN = LevenshteinDistance.getDefaultInstance();
+
+    private final Set<String> properties;
+    private final BkNode root;
+
+    PropertySuggestionIndex(Set<String> properties) {
+        this.properties = Set.copyOf(properties);
+        BkNode tree = null;
+        // sorted insertion keeps the tree shape independent of the set order
+        for (String property : this.properties.stream().sorted().toList()) {
+            if (tree == null) {
+                tree = new BkNode(property);
+            } else {
+                tree.add(property);
+            }
+        }
+        this.root = tree;
+    }
+
+    Set<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the property with the smallest distance below maxDistance + 1, the alphabetically first one among equally
+     *         close properties, or an empty string if there is none
+     */
+    String findClosest(String unknownProperty, int maxDistance) {
+        if (root == null || maxDistance < 0) {
+            return "";
+        }
+        Match best = new Match(maxDistance + 1, "");
+        root.search(unknownProperty, best);
+        return best.property;
+    }
+
+    private static final class Match {
+        private int distance;
+        private String property;
+
+        private Match(int distance, String property) {
+            this.distance = distance;
+            this.property = property;
+        }
+    }
+
+    private static final class BkNode {
+        private final String property;
+        private final Map<Integer, BkNode> children = new HashMap<>();
+
+        private BkNode(String property) {
+            this.property = property;
+        }
+
+        private void add(String other) {
+            BkNode node = this;
+            while (true) {
+                int distance = LEVENSHTEIN.apply(node.property, other);
+                if (distance == 0) {
+                    return;
+                }
+                BkNode child = node.children.get(distance);
+                if (child == null) {
+                    node.children.put(distance, new BkNode(other));
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        private void search(String query, Match best) {
+            int distance = LEVENSHTEIN.apply(query, property);
+            if (distance < best.distance || (distance == best.distance && !best.property.isEmpty() && property.compareTo(best.property) < 0)) {
+                best.distance = distance;
+                best.property = property;
+            }
+            // by triangle inequality only children at distance within the current best radius may be closer
+            for (Map.Entry<Integer, BkNode> child : children.entrySet()) {
+                if (Math.abs(child.getKey() - distance) <= best.distance) {
+                    child.getValue().search(query, best);
+                }
+            }
+        }
+    }
+}
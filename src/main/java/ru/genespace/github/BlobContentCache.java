@@ -0,0 +1,43 @@
+package ru.genespace.github;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU of decoded file contents keyed by Git blob SHA.
+ * Branches and tags of a repository mostly share blobs, so a file downloaded for one reference
+ * is served from memory for all others. Blob content never changes, so entries need no invalidation.
+ */
+public class BlobContentCache
+{
+    private final long maxChars;
+    private final LinkedHashMap<String, String> contents = new LinkedHashMap<>( 16, 0.75f, true );
+    private long chars = 0;
+
+    public BlobContentCache(long maxChars)
+    {
+        this.maxChars = maxChars;
+    }
+
+    public synchronized String get(String sha)
+    {
+        return sha == null ? null : contents.get( sha );
+    }
+
+    public synchronized void put(String sha, String content)
+    {
+        if( sha == null || content == null || content.length() > maxChars )
+            return;
+        String previous = contents.put( sha, content );
+        if( previous != null )
+            chars -= previous.length();
+        chars += content.length();
+        Iterator<Map.Entry<String, String>> iterator = contents.entrySet().iterator();
+        while( chars > maxChars && iterator.hasNext() )
+        {
+            chars -= iterator.next().getValue().length();
+            iterator.remove();
+        }
+    }
+}
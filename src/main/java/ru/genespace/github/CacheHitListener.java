@@ -1,25 +1,47 @@
 package ru.genespace.github;
 
+import static com.developmentontheedge.be5.modules.monitoring.Metrics.METRIC_REGISTRY;
+
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
 import jakarta.validation.constraints.NotNull;
 import okhttp3.EventListener;
+import okhttp3.HttpUrl;
 import okhttp3.Response;
 import okhttp3.Call;
-import okhttp3.internal.connection.RealCall;
 
+/**
+ * Counts cache hits, conditional hits and misses of GitHub requests per endpoint family (contents, git.trees,
+ * tarball, ...) in be5 metrics. Misses may also be written to a log file by a background thread, see
+ * {@link #setMissLogFile(File)}.
+ */
 public class CacheHitListener extends EventListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(CacheHitListener.class);
     public static final String DOCKSTORE_WEB_CACHE_MISS_LOG_FILE = "/tmp/dockstore-web-cache.misses.log";
     public static final File CACHE_MISS_LOG_FILE = new File( DOCKSTORE_WEB_CACHE_MISS_LOG_FILE );
 
+    private static final int MISS_LOG_QUEUE_SIZE = 10_000;
+    private static final BlockingQueue<String> MISS_LOG_QUEUE = new ArrayBlockingQueue<>(MISS_LOG_QUEUE_SIZE);
+    private static final Counter MISS_LOG_DROPPED = METRIC_REGISTRY.counter(MetricRegistry.name(CacheHitListener.class, "missLog", "dropped"));
+    private static volatile File missLogFile = null;
+    private static Thread missLogWriter = null;
+
     private final String listenerTag;
     private final String username;
 
@@ -30,25 +52,97 @@ public class CacheHitListener extends EventListener {
 
     @Override
     public void cacheConditionalHit(@NotNull Call call, @NotNull Response cachedResponse) {
-        /* do nothing, might be useful for debugging rate limit */
+        RequestStats.conditionalHit();
+        counter(call, "conditionalHits").inc();
     }
 
     @Override
     public void cacheHit(@NotNull Call call, @NotNull Response response) {
-        /* do nothing, might be useful for debugging rate limit */
+        RequestStats.cacheHit();
+        counter(call, "hits").inc();
     }
 
     @Override
     public void cacheMiss(@NotNull Call call) {
-        String endpointCalled = ((RealCall)call).getOriginalRequest().url().toString();
-        if (!endpointCalled.contains("rate_limit")) {
-            LOG.debug(listenerTag + " cacheMiss for : " + endpointCalled);
+        counter(call, "misses").inc();
+        String endpointCalled = call.request().url().toString();
+        if (missLogFile != null && !endpointCalled.contains("rate_limit")) {
+            // the request thread never waits for the disk, lines are dropped when the writer is behind
+            if (!MISS_LOG_QUEUE.offer(listenerTag + ',' + username + ',' + endpointCalled)) {
+                MISS_LOG_DROPPED.inc();
+            }
+        }
+    }
+
+    /**
+     * Enables writing cache misses to the file, one "tag,user,url" line per miss
+     *
+     * @param file log file, null to disable
+     */
+    public static synchronized void setMissLogFile(File file) {
+        missLogFile = file;
+        if (file != null && missLogWriter == null) {
+            missLogWriter = new Thread(CacheHitListener::writeMissLog, "github-cache-miss-log");
+            missLogWriter.setDaemon(true);
+            missLogWriter.start();
+        }
+    }
+
+    private static void writeMissLog() {
+        List<String> lines = new ArrayList<>();
+        while (true) {
             try {
-                FileUtils.writeStringToFile( CACHE_MISS_LOG_FILE, listenerTag + ',' + username + ',' + endpointCalled + '\n',
-                        StandardCharsets.UTF_8, true);
-            } catch (IOException e) {
-                LOG.error("could not write cache miss to log", e);
+                lines.add(MISS_LOG_QUEUE.take());
+                MISS_LOG_QUEUE.drainTo(lines);
+                File file = missLogFile;
+                if (file == null) {
+                    lines.clear();
+                    continue;
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+                catch (IOException e) {
+                    LOG.error("could not write cache miss to log", e);
+                }
+                lines.clear();
             }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return counter of the event for the endpoint family of the call
+     */
+    private static Counter counter(Call call, String event) {
+        return METRIC_REGISTRY.counter(MetricRegistry.name(CacheHitListener.class, getEndpointFamily(call.request().url()), event));
+    }
+
+    /**
+     * /repos/{owner}/{repo}/contents/... is "contents", /repos/{owner}/{repo}/git/trees/... is "git.trees",
+     * other APIs are named by the first path segment, like "rate_limit"
+     */
+    static String getEndpointFamily(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        if (!url.host().startsWith("api.")) {
+            return url.host();
+        }
+        if (segments.size() > 3 && segments.get(0).equals("repos")) {
+            String family = segments.get(3);
+            if (family.equals("git") && segments.size() > 4) {
+                return "git." + segments.get(4);
+            }
+            return family;
+        }
+        if (segments.size() == 3 && segments.get(0).equals("repos")) {
+            return "repository";
         }
+        return segments.isEmpty() || segments.get(0).isEmpty() ? "root" : segments.get(0);
     }
 }
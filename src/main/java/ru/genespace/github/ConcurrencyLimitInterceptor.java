@@ -0,0 +1,85 @@
+package ru.genespace.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Network interceptor which limits the number of requests to GitHub in progress, so that parallel ingestion threads
+ * do not open more connections than configured. Synchronous calls are not limited by the OkHttp dispatcher. A request
+ * holds its permit until the response body is closed, responses served from the cache do not take one.
+ */
+public class ConcurrencyLimitInterceptor implements Interceptor
+{
+    private final Semaphore permits;
+
+    /**
+     * @param maxRequests at least 1, otherwise every request would wait forever
+     */
+    public ConcurrencyLimitInterceptor(int maxRequests)
+    {
+        if( maxRequests < 1 )
+            throw new IllegalArgumentException( "maxRequests must be positive: " + maxRequests );
+        this.permits = new Semaphore( maxRequests, true );
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException
+    {
+        try
+        {
+            permits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a free connection to GitHub" );
+        }
+        Response response;
+        try
+        {
+            response = chain.proceed( chain.request() );
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            permits.release();
+            throw e;
+        }
+        ResponseBody body = response.body();
+        if( body == null )
+        {
+            permits.release();
+            return response;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        ForwardingSource source = new ForwardingSource( body.source() )
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    if( released.compareAndSet( false, true ) )
+                        permits.release();
+                }
+            }
+        };
+        return response.newBuilder().body( ResponseBody.create( Okio.buffer( source ), body.contentType(), body.contentLength() ) ).build();
+    }
+
+    int getAvailablePermits()
+    {
+        return permits.availablePermits();
+    }
+}
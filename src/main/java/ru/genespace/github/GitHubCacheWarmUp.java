@@ -0,0 +1,79 @@
+package ru.genespace.github;
+
+import static ru.genespace.dockstore.Constants.DOCKSTORE_YML_PATH;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.kohsuke.github.GHRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.developmentontheedge.be5.database.DbService;
+import com.developmentontheedge.be5.database.QRec;
+
+/**
+ * Fills the HTTP cache after startup with the requests every view and refresh starts with: repository, its branches
+ * and tags, and .dockstore.yml of the default branch. Runs in a background thread, so it waits for GitHub quota
+ * instead of competing with users. Disabled by setting github_cache_warm_up to "no". Started by {@link #start()} when
+ * the application is initialized.
+ */
+@Singleton
+public class GitHubCacheWarmUp
+{
+    private static final Logger LOG = LoggerFactory.getLogger( GitHubCacheWarmUp.class );
+
+    private final DbService db;
+    private final GitHubClientRegistry gitHubClients;
+    private Thread thread;
+
+    @Inject
+    public GitHubCacheWarmUp(DbService db, GitHubClientRegistry gitHubClients)
+    {
+        this.db = db;
+        this.gitHubClients = gitHubClients;
+    }
+
+    public synchronized void start()
+    {
+        if( thread != null || "no".equalsIgnoreCase( gitHubClients.getSetting( "github_cache_warm_up" ) ) )
+            return;
+        thread = new Thread( this::warmUp, "github-cache-warm-up" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        if( thread != null )
+            thread.interrupt();
+    }
+
+    private void warmUp()
+    {
+        RateLimitHelper.setBackground( true );
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for ( QRec rec : db.list( "SELECT url AS \"url\" FROM repositories ORDER BY ID" ) )
+        {
+            if( Thread.currentThread().isInterrupted() )
+                return;
+            String repositoryId = rec.getString( "url" );
+            try
+            {
+                GitHubRepository repo = gitHubClients.createRepository();
+                GHRepository repository = repo.getRepository( repositoryId );
+                repo.getBranchesAndTags( repository );
+                repo.readFileFromRepo( DOCKSTORE_YML_PATH, repository.getDefaultBranch(), repository );
+                repo.releaseReferenceContents();
+                count++;
+            }
+            catch (Exception e)
+            {
+                LOG.warn( "Could not warm up GitHub cache for " + repositoryId + ": " + e.getMessage() );
+            }
+        }
+        LOG.info( "GitHub cache warmed up for " + count + " repositories in " + (System.currentTimeMillis() - start) + " ms" );
+    }
+}
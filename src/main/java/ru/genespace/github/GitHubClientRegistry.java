@@ -0,0 +1,228 @@
+package ru.genespace.github;
+
+import static com.developmentontheedge.be5.modules.monitoring.Metrics.METRIC_REGISTRY;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.developmentontheedge.be5.database.DbService;
+
+import ru.genespace.misc.CustomLoggedException;
+
+/**
+ * Keeps GitHub clients built from registry settings: github_user with github_token, and any number of additional
+ * tokens in github_tokens, one "user:token" per line or separated by commas. All {@link GitHubManager}s created here
+ * share the connection pool and HTTP cache. Each manager gets the client with the most remaining quota, as observed
+ * in the last responses, so no extra requests are made to choose. Settings are re-read at most once in
+ * {@link #SETTINGS_CHECK_INTERVAL_MS}, clients are rebuilt only when they are changed. Setting github_cache_miss_log
+ * enables the log of HTTP cache misses, github_cache_dir, github_cache_size_mb and github_cache_max_age_seconds
+ * configure the HTTP cache.
+ */
+@Singleton
+public class GitHubClientRegistry
+{
+    private static final Logger LOG = LoggerFactory.getLogger( GitHubClientRegistry.class );
+
+    static final long SETTINGS_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis( 30 );
+
+    private final DbService db;
+
+    private String settings;
+    private volatile List<TokenClient> clients = List.of();
+    private long settingsCheckedAt;
+
+    private record TokenClient(String user, GitHub client)
+    {
+    }
+
+    @Inject
+    public GitHubClientRegistry(DbService db)
+    {
+        this.db = db;
+        METRIC_REGISTRY.gauge( MetricRegistry.name( GitHubClientRegistry.class, "remaining" ), () -> (Gauge<Integer>) this::getMaxRemaining );
+        METRIC_REGISTRY.gauge( MetricRegistry.name( GitHubClientRegistry.class, "resetEpochSeconds" ),
+                () -> (Gauge<Long>) () -> TimeUnit.MILLISECONDS.toSeconds( getEarliestReset() ) );
+    }
+
+    /**
+     * @return manager for a single request, it is cheap to create
+     * @throws CustomLoggedException if all tokens are out of rate limit
+     */
+    public GitHubManager createManager()
+    {
+        return new GitHubManager( createRepository() );
+    }
+
+    /**
+     * Waits until some token has quota again if all are exhausted, for background work
+     *
+     * @return manager for an import job
+     */
+    public GitHubManager createManagerWhenAvailable() throws InterruptedException
+    {
+        while( true )
+        {
+            try
+            {
+                return new GitHubManager( createRepository() );
+            }
+            catch (CustomLoggedException e)
+            {
+                long waitMs = Math.max( TimeUnit.SECONDS.toMillis( 1 ), getEarliestReset() - System.currentTimeMillis() );
+                LOG.info( "All GitHub tokens are out of rate limit, waiting " + TimeUnit.MILLISECONDS.toSeconds( waitMs ) + " seconds" );
+                Thread.sleep( waitMs );
+            }
+        }
+    }
+
+    GitHubRepository createRepository()
+    {
+        TokenClient best = null;
+        int bestRemaining = Integer.MIN_VALUE;
+        for ( TokenClient client : getClients() )
+        {
+            int remaining = getRemaining( client.client() );
+            if( remaining > bestRemaining )
+            {
+                best = client;
+                bestRemaining = remaining;
+            }
+        }
+        if( bestRemaining <= GitHubRepository.SLEEP_AT_RATE_LIMIT_OR_BELOW )
+        {
+            LOG.error( GitHubRepository.OUT_OF_GIT_HUB_RATE_LIMIT + " for all " + clients.size() + " tokens" );
+            throw new CustomLoggedException( GitHubRepository.OUT_OF_GIT_HUB_RATE_LIMIT );
+        }
+        return new GitHubRepository( best.client(), best.user() );
+    }
+
+    /**
+     * @return requests left until reset as of the last response, the full limit if it was reset since then
+     */
+    private static int getRemaining(GitHub client)
+    {
+        GHRateLimit.Record core = client.lastRateLimit().getCore();
+        if( core.getResetDate().before( new Date() ) )
+            return core.getLimit();
+        return core.getRemaining();
+    }
+
+    /**
+     * @return the largest quota left among tokens, as observed in the last responses
+     */
+    public int getMaxRemaining()
+    {
+        return clients.stream().mapToInt( client -> getRemaining( client.client() ) ).max().orElse( 0 );
+    }
+
+    public long getEarliestReset()
+    {
+        return clients.stream().mapToLong( client -> client.client().lastRateLimit().getCore().getResetDate().getTime() ).min()
+                .orElse( System.currentTimeMillis() );
+    }
+
+    private synchronized List<TokenClient> getClients()
+    {
+        long now = System.currentTimeMillis();
+        if( !clients.isEmpty() && now - settingsCheckedAt < SETTINGS_CHECK_INTERVAL_MS )
+            return clients;
+        settingsCheckedAt = now;
+        String user = getSetting( "github_user" );
+        String token = getSetting( "github_token" );
+        String tokens = getSetting( "github_tokens" );
+        boolean httpChanged = configureCache();
+        String missLog = getSetting( "github_cache_miss_log" );
+        CacheHitListener.setMissLogFile( missLog != null && !missLog.isBlank() ? new File( missLog ) : null );
+        String newSettings = user + "\n" + token + "\n" + tokens;
+        if( clients.isEmpty() || httpChanged || !Objects.equals( settings, newSettings ) )
+        {
+            if( !clients.isEmpty() )
+                LOG.info( "GitHub settings changed, creating new clients" );
+            List<TokenClient> created = new ArrayList<>();
+            if( token != null || tokens == null )
+                created.add( new TokenClient( user, GitHubRepository.createClient( user, token ) ) );
+            if( tokens != null )
+            {
+                for ( String entry : tokens.split( "[,\\s]+" ) )
+                {
+                    int separator = entry.indexOf( ':' );
+                    if( separator <= 0 )
+                        continue;
+                    String tokenUser = entry.substring( 0, separator );
+                    created.add( new TokenClient( tokenUser, GitHubRepository.createClient( tokenUser, entry.substring( separator + 1 ) ) ) );
+                }
+            }
+            if( created.isEmpty() )
+                created.add( new TokenClient( null, GitHubRepository.createClient( null, null ) ) );
+            clients = List.copyOf( created );
+            settings = newSettings;
+        }
+        return clients;
+    }
+
+    /**
+     * Applies github_cache_dir, github_cache_size_mb, github_cache_max_age_seconds and HTTP client settings
+     *
+     * @return true if the HTTP client was rebuilt, clients have to be created again to use it
+     */
+    private boolean configureCache()
+    {
+        String directory = getSetting( "github_cache_dir" );
+        GitHubRepository.configureCache( directory != null && !directory.isBlank() ? directory : GitHubRepository.DOCKSTORE_WEB_CACHE,
+                getLongSetting( "github_cache_size_mb", GitHubRepository.CACHE_IN_MB, 1, Long.MAX_VALUE / (1024 * 1024) ),
+                getIntSetting( "github_cache_max_age_seconds", GitHubRepository.GITHUB_MAX_CACHE_AGE_SECONDS, 0 ) );
+        GitHubRepository.HttpSettings defaults = GitHubRepository.HttpSettings.DEFAULT;
+        return GitHubRepository.configureHttp( new GitHubRepository.HttpSettings( getIntSetting( "github_connect_timeout_seconds", defaults.connectTimeoutSeconds(), 0 ),
+                getIntSetting( "github_read_timeout_seconds", defaults.readTimeoutSeconds(), 0 ), getIntSetting( "github_max_connections", defaults.maxConnections(), 1 ),
+                getIntSetting( "github_retries", defaults.retries(), 0 ) ) );
+    }
+
+    /**
+     * @return value of the setting, or defaultValue if it is not set, not a number or less than minValue
+     */
+    private int getIntSetting(String name, int defaultValue, int minValue)
+    {
+        return (int)getLongSetting( name, defaultValue, minValue, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @return value of the setting, or defaultValue if it is not set, not a number or out of the range
+     */
+    private long getLongSetting(String name, long defaultValue, long minValue, long maxValue)
+    {
+        String value = getSetting( name );
+        if( value == null || value.isBlank() )
+            return defaultValue;
+        try
+        {
+            long parsed = Long.parseLong( value.trim() );
+            if( parsed >= minValue && parsed <= maxValue )
+                return parsed;
+        }
+        catch (NumberFormatException e)
+        {
+            // reported below
+        }
+        LOG.warn( "Invalid value of setting " + name + ": '" + value + "', expected an integer from " + minValue + " to " + maxValue + ", using " + defaultValue );
+        return defaultValue;
+    }
+
+    public String getSetting(String name)
+    {
+        return db.getString( "SELECT setting_value FROM systemsettings WHERE section_name='registry' AND setting_name=?", name );
+    }
+}
@@ -4,12 +4,24 @@ import static ru.genespace.dockstore.Constants.DOCKSTORE_YML_PATH;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.github.GHFileNotFoundException;
@@ -20,9 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import ru.genespace.content.CachedContentManager;
 import ru.genespace.content.ContentManager;
-import ru.genespace.dockstore.AppTool;
 import ru.genespace.dockstore.DescriptorLanguage;
-import ru.genespace.dockstore.Notebook;
 import ru.genespace.dockstore.SourceFile;
 import ru.genespace.dockstore.Workflow;
 import ru.genespace.dockstore.WorkflowMode;
@@ -31,10 +41,11 @@ import ru.genespace.dockstore.WorkflowVersion.ReferenceType;
 import ru.genespace.dockstore.yaml.DockstoreYaml12;
 import ru.genespace.dockstore.yaml.DockstoreYamlHelper;
 import ru.genespace.dockstore.yaml.DockstoreYamlHelper.DockstoreYamlException;
-import ru.genespace.dockstore.yaml.YamlAuthor;
+import ru.genespace.dockstore.yaml.Workflowish;
 import ru.genespace.dockstore.yaml.YamlNotebook;
 import ru.genespace.dockstore.yaml.YamlTool;
 import ru.genespace.dockstore.yaml.YamlWorkflow;
+import ru.genespace.github.GitHubRepository.FetchMode;
 import ru.genespace.github.GitHubRepository.GitReferenceInfo;
 import ru.genespace.github.GitHubRepository.GitVisibility;
 import ru.genespace.github.GitHubRepository.SourceControl;
@@ -44,10 +55,14 @@ public class GitHubManager implements StringContentProvider
 {
     public static final Logger LOG = LoggerFactory.getLogger( GitHubManager.class );
 
+    public static final int DEFAULT_INGESTION_THREADS = 4;
+
     private String gitUsername;
     private String gitToken;
+    private int ingestionThreads = DEFAULT_INGESTION_THREADS;
     private GitHubRepository repo = null;
     private ContentManager cache = null;
+    private IngestionListener listener = IngestionListener.NONE;
 
     public GitHubManager(String gitUsername, String gitToken)
     {
@@ -57,6 +72,15 @@ public class GitHubManager implements StringContentProvider
 
     }
 
+    /**
+     * @param repo client wrapper, usually created by {@link GitHubClientRegistry}
+     */
+    public GitHubManager(GitHubRepository repo)
+    {
+        this.gitUsername = repo.getGitUsername();
+        this.repo = repo;
+    }
+
     //Process repository, get tags and branches, read .dockstore.yml for all branches, 
     //create list of Workflows (map to our Resources). Workflow contains list of WorkflowVersion (map to our Versions) 
     public Map<String, Workflow> processRepository(String repositoryId) throws DockstoreYamlException
@@ -68,19 +92,165 @@ public class GitHubManager implements StringContentProvider
     //create list of Workflows (map to our Resources). Workflow contains list of WorkflowVersion (map to our Versions) 
     //Stop when workflowNumberLimit of processed is reached (need for testing)
     //repositoryId - string containing organization and github repo name separated with slash, for example "genespace-workflows/general" 
+    //References are processed concurrently by ingestionThreads workers, results are merged in the order of reference names
     public Map<String, Workflow> processRepository(String repositoryId, int workflowNumberLimit) throws DockstoreYamlException
+    {
+        return processRepository( repositoryId, workflowNumberLimit, Map.of() ).workflows();
+    }
+
+    /**
+     * Processes only branches and tags that are new or point to another commit than the stored version.
+     * Unchanged branches and lightweight tags cost no requests besides listing the references.
+     * 
+     * @param repositoryId organization and github repo name separated with slash
+     * @param knownCommits commit SHA by branch or tag name (versions.name) of already stored versions
+     * @return workflows with versions of the changed references only, changed and vanished reference names
+     */
+    public RefreshResult refreshRepository(String repositoryId, Map<String, String> knownCommits) throws DockstoreYamlException
+    {
+        return processRepository( repositoryId, Integer.MAX_VALUE, knownCommits );
+    }
+
+    private RefreshResult processRepository(String repositoryId, int workflowNumberLimit, Map<String, String> knownCommits) throws DockstoreYamlException
     {
         GHRepository repository = repo.getRepository( repositoryId );
-        Map<String, GitReferenceInfo> references = new HashMap<>();
+        ExecutorService executor = createIngestionExecutor( repositoryId );
         try
         {
-            GHRef[] refs = repo.getBranchesAndTags( repository );
-            for ( GHRef ref : refs )
+            Set<String> liveNames = new HashSet<>();
+            Map<String, GitReferenceInfo> references = getReferences( repositoryId, repository, executor, knownCommits, liveNames );
+            Set<String> changedNames = references.values().stream().map( GitReferenceInfo::refName ).collect( Collectors.toSet() );
+            Set<String> removedNames = new HashSet<>( knownCommits.keySet() );
+            removedNames.removeAll( liveNames );
+            listener.referencesFound( references.size() );
+
+            // Read .dockstore.yml for each reference (branch or tag)
+            List<ReferenceYaml> referenceYamls = mapInParallel( executor, new ArrayList<>( references.entrySet() ),
+                    refEntry -> readReferenceYaml( repositoryId, refEntry.getKey(), refEntry.getValue() ) );
+
+            // Create workflows sequentially, so that workflowNumberLimit and the content of the map do not depend on timing
+            Map<String, Workflow> workflows = new HashMap<>();
+            List<VersionTask> tasks = new ArrayList<>();
+            for ( ReferenceYaml referenceYaml : referenceYamls )
             {
-                GitReferenceInfo gitReferenceInfo = repo.getRef( ref, repository );
-                if( gitReferenceInfo != null )
+                if( referenceYaml == null )
+                    continue;
+                DockstoreYaml12 yaml = referenceYaml.yaml();
+                for ( YamlWorkflow yamlWorkflow : yaml.getWorkflows() )
                 {
-                    references.put( ref.getRef(), gitReferenceInfo );
+                    Workflow workflow = getOrCreateWorkflow( workflows, repository, yamlWorkflow.getName(), () -> {
+                        Workflow created = repo.initializeWorkflowFromGitHub( repositoryId, yamlWorkflow.getSubclass(), yamlWorkflow.getName() );
+                        if( StringUtils.isNotBlank( yamlWorkflow.getTopic() ) )
+                            created.setTopic( yamlWorkflow.getTopic() );
+                        return created;
+                    } );
+                    // the workflow which reaches the limit is kept without versions
+                    if( workflows.size() >= workflowNumberLimit )
+                        break;
+                    tasks.add( new VersionTask( workflow, referenceYaml, yamlWorkflow, true ) );
+                }
+                if( workflows.size() >= workflowNumberLimit )
+                    break;
+                for ( YamlNotebook yamlNotebook : yaml.getNotebooks() )
+                {
+                    Workflow workflow = getOrCreateWorkflow( workflows, repository, yamlNotebook.getName(),
+                            () -> repo.initializeNotebookFromGitHub( repositoryId, yamlNotebook.getFormat(), yamlNotebook.getLanguage(), yamlNotebook.getName() ) );
+                    if( workflows.size() >= workflowNumberLimit )
+                        break;
+                    tasks.add( new VersionTask( workflow, referenceYaml, yamlNotebook, false ) );
+                }
+                if( workflows.size() >= workflowNumberLimit )
+                    break;
+                for ( YamlTool yamlTool : yaml.getTools() )
+                {
+                    Workflow workflow = getOrCreateWorkflow( workflows, repository, yamlTool.getName(),
+                            () -> repo.initializeOneStepWorkflowFromGitHub( repositoryId, yamlTool.getSubclass(), yamlTool.getName() ) );
+                    if( workflows.size() >= workflowNumberLimit )
+                        break;
+                    tasks.add( new VersionTask( workflow, referenceYaml, yamlTool, false ) );
+                }
+                if( workflows.size() >= workflowNumberLimit )
+                    break;
+            }
+
+            // A reference is processed when the last of its versions is created
+            Map<String, AtomicInteger> pendingTasks = new HashMap<>();
+            for ( VersionTask task : tasks )
+                pendingTasks.computeIfAbsent( task.referenceYaml().reference(), reference -> new AtomicInteger() ).incrementAndGet();
+            for ( String reference : references.keySet() )
+            {
+                if( !pendingTasks.containsKey( reference ) )
+                {
+                    repo.releaseArchive( repository, reference );
+                    listener.referenceProcessed( reference );
+                }
+            }
+
+            // Fetch descriptors and validate versions concurrently, workflows are only read at this stage
+            List<WorkflowVersion> versions = mapInParallel( executor, tasks, task -> {
+                String reference = task.referenceYaml().reference();
+                WorkflowVersion version = repo.createDockstoreYmlVersion( repositoryId, reference, task.referenceYaml().file(), task.workflow(),
+                        task.entry().getAuthors() );
+                if( pendingTasks.get( reference ).decrementAndGet() == 0 )
+                {
+                    repo.releaseArchive( repository, reference );
+                    listener.referenceProcessed( reference );
+                }
+                return version;
+            } );
+
+            // Attach versions in the order of references, so the default version is chosen deterministically
+            for ( int i = 0; i < tasks.size(); i++ )
+            {
+                VersionTask task = tasks.get( i );
+                WorkflowVersion version = versions.get( i );
+                if( task.useReadMe() )
+                {
+                    //default readme path of github repository
+                    version.setReadMePath( task.entry().getReadMePath() != null ? task.entry().getReadMePath() : "/README.md" );
+                }
+                version.setName( task.referenceYaml().info().refName() );
+                repo.attachDockstoreYmlVersion( repositoryId, task.workflow(), version, task.entry().getLatestTagAsDefault() );
+            }
+            return new RefreshResult( workflows, changedNames, removedNames );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            repo.releaseReferenceContents();
+        }
+    }
+
+    /**
+     * @param knownCommits commit SHA by short reference name, references pointing to the same commit are skipped
+     * @param liveNames receives short names of all branches and tags of the repository
+     */
+    private Map<String, GitReferenceInfo> getReferences(String repositoryId, GHRepository repository, ExecutorService executor, Map<String, String> knownCommits,
+            Set<String> liveNames)
+    {
+        Map<String, GitReferenceInfo> references = new TreeMap<>();
+        try
+        {
+            GHRef[] refArray = repo.getBranchesAndTags( repository );
+            // refresh the reference index of the session, so file reads do not list references again
+            repo.indexReferences( repository, refArray );
+            List<GHRef> refs = new ArrayList<>();
+            for ( GHRef ref : refArray )
+            {
+                String name = StringUtils.removeStart( StringUtils.removeStart( ref.getRef(), GitHubRepository.REFS_HEADS ), GitHubRepository.REFS_TAGS );
+                liveNames.add( name );
+                // the commit of a branch or a lightweight tag is known from the listing, annotated tags need a request
+                if( "commit".equals( ref.getObject().getType() ) && !isChanged( ref.getObject().getSha(), knownCommits.get( name ) ) )
+                    continue;
+                refs.add( ref );
+            }
+            List<GitReferenceInfo> infos = mapInParallel( executor, refs, ref -> repo.getRef( ref, repository ) );
+            for ( int i = 0; i < refs.size(); i++ )
+            {
+                GitReferenceInfo info = infos.get( i );
+                if( info != null && isChanged( info.sha(), knownCommits.get( info.refName() ) ) )
+                {
+                    references.put( refs.get( i ).getRef(), info );
                 }
             }
         }
@@ -94,116 +264,149 @@ public class GitHubManager implements StringContentProvider
             LOG.info( "%s: Cannot get branches or tags for workflow {}".formatted( gitUsername ), e );
             throw new CustomLoggedException( "Could not reach GitHub, please try again later" );
         }
+        return references;
+    }
 
-        Map<String, Workflow> workflows = new HashMap<>();
-        // For each branch (reference) found, create a workflow version and find the associated descriptor files
-        for ( Entry<String, GitReferenceInfo> refEntry : references.entrySet() )
+    private boolean isChanged(String commitId, String knownCommit)
+    {
+        WorkflowVersion existingVersion = null;
+        if( knownCommit != null )
         {
-            GitReferenceInfo ref = refEntry.getValue();
-            String referenceStr = refEntry.getKey();
-            if( ref != null )
-            {
-                final String branchName = ref.refName();
-                Optional<SourceFile> ymlFile = repo.getDockstoreYml( repositoryId, referenceStr );
+            existingVersion = new WorkflowVersion();
+            existingVersion.setCommitID( knownCommit );
+        }
+        return repo.toRefreshVersion( commitId, existingVersion, false );
+    }
 
-                if( ymlFile.isPresent() )
-                {
-                    SourceFile file = ymlFile.get();
-                    DockstoreYaml12 yaml = null;
-                    try
-                    {
-                        yaml = DockstoreYamlHelper.readAsDockstoreYaml12( file.getContent(), true );
-                    }
-                    catch (DockstoreYamlHelper.DockstoreYamlException ex)
-                    {
-                        String msg = "Invalid .dockstore.yml: " + ex.getMessage();
-                        LOG.info( msg, ex );
-                        continue;
-                    }
-
-                    for ( YamlWorkflow yamlWorkflow : yaml.getWorkflows() )
-                    {
-                        String wfName = yamlWorkflow.getName();
-                        String dockstoreWorkflowPath = "github.com/" + repository.getFullName() + (wfName != null && !wfName.isEmpty() ? "/" + wfName : "");
-
-                        Workflow workflow = null;
-                        if( workflows.containsKey( dockstoreWorkflowPath ) )
-                            workflow = workflows.get( dockstoreWorkflowPath );
-                        else
-                        {
-                            workflow = repo.initializeWorkflowFromGitHub( repositoryId, yamlWorkflow.getSubclass(), wfName );
-                            if( StringUtils.isNotBlank( yamlWorkflow.getTopic() ) )
-                                workflow.setTopic( yamlWorkflow.getTopic() );
-
-                            workflows.put( dockstoreWorkflowPath, workflow );
-                            if( workflows.size() >= workflowNumberLimit )
-                                break;
-                        }
-                        List<YamlAuthor> yamlAuthors = yamlWorkflow.getAuthors();
-                        WorkflowVersion version = repo.addDockstoreYmlVersionToWorkflow( repositoryId, referenceStr, file, workflow, yamlWorkflow.getLatestTagAsDefault(),
-                                yamlAuthors );
-                        if( yamlWorkflow.getReadMePath() != null )
-                        {
-                            version.setReadMePath( yamlWorkflow.getReadMePath() );
-                        }
-                        else
-                        {
-                            //default readme path of github repository
-                            version.setReadMePath( "/README.md" );
-                        }
-                        version.setName( branchName );
-                    }
-                    if( workflows.size() >= workflowNumberLimit )
-                        break;
-                    for ( YamlNotebook yamlNotebook : yaml.getNotebooks() )
-                    {
-                        String wfName = yamlNotebook.getName();
-                        String dockstoreWorkflowPath = "github.com/" + repository.getFullName() + (wfName != null && !wfName.isEmpty() ? "/" + wfName : "");
-
-                        Notebook workflow = null;
-                        if( workflows.containsKey( dockstoreWorkflowPath ) )
-                            workflow = (Notebook) workflows.get( dockstoreWorkflowPath );
-                        else
-                        {
-                            workflow = repo.initializeNotebookFromGitHub( repositoryId, yamlNotebook.getFormat(), yamlNotebook.getLanguage(), wfName );
-                            workflows.put( dockstoreWorkflowPath, workflow );
-                            if( workflows.size() >= workflowNumberLimit )
-                                break;
-                        }
-                        List<YamlAuthor> yamlAuthors = yamlNotebook.getAuthors();
-                        WorkflowVersion version = repo.addDockstoreYmlVersionToWorkflow( repositoryId, referenceStr, file, workflow, yamlNotebook.getLatestTagAsDefault(),
-                                yamlAuthors );
-                        version.setName( branchName );
-                    }
+    private ReferenceYaml readReferenceYaml(String repositoryId, String referenceStr, GitReferenceInfo ref)
+    {
+        Optional<SourceFile> ymlFile = repo.getDockstoreYml( repositoryId, referenceStr );
+        if( ymlFile.isEmpty() )
+            return null;
+        SourceFile file = ymlFile.get();
+        try
+        {
+            // identical .dockstore.yml of other references is parsed only once
+            return new ReferenceYaml( referenceStr, ref, file, repo.readDockstoreYaml12( file.getContent(), true ) );
+        }
+        catch (DockstoreYamlHelper.DockstoreYamlException ex)
+        {
+            String msg = "Invalid .dockstore.yml: " + ex.getMessage();
+            LOG.info( msg, ex );
+            return null;
+        }
+    }
 
-                    if( workflows.size() >= workflowNumberLimit )
-                        break;
-                    for ( YamlTool yamlTool : yaml.getTools() )
-                    {
-                        String wfName = yamlTool.getName();
-                        String dockstoreWorkflowPath = "github.com/" + repository.getFullName() + (wfName != null && !wfName.isEmpty() ? "/" + wfName : "");
-
-                        AppTool workflow = null;
-                        if( workflows.containsKey( dockstoreWorkflowPath ) )
-                            workflow = (AppTool) workflows.get( dockstoreWorkflowPath );
-                        else
-                        {
-                            workflow = repo.initializeOneStepWorkflowFromGitHub( repositoryId, yamlTool.getSubclass(), wfName );
-                            workflows.put( dockstoreWorkflowPath, workflow );
-                            if( workflows.size() >= workflowNumberLimit )
-                                break;
-                        }
-                        List<YamlAuthor> yamlAuthors = yamlTool.getAuthors();
-                        WorkflowVersion version = repo.addDockstoreYmlVersionToWorkflow( repositoryId, referenceStr, file, workflow, yamlTool.getLatestTagAsDefault(),
-                                yamlAuthors );
-                        version.setName( branchName );
-                    }
-                }
+    private Workflow getOrCreateWorkflow(Map<String, Workflow> workflows, GHRepository repository, String wfName, Supplier<Workflow> creator)
+    {
+        String dockstoreWorkflowPath = "github.com/" + repository.getFullName() + (wfName != null && !wfName.isEmpty() ? "/" + wfName : "");
+        return workflows.computeIfAbsent( dockstoreWorkflowPath, path -> creator.get() );
+    }
+
+    private ExecutorService createIngestionExecutor(String repositoryId)
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        boolean background = RateLimitHelper.isBackground();
+        return Executors.newFixedThreadPool( ingestionThreads, runnable -> {
+            Thread thread = new Thread( () -> {
+                RateLimitHelper.setBackground( background );
+                runnable.run();
+            }, "github-ingestion-" + repositoryId + "-" + threadNumber.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Applies function to every item using the executor and returns results in the order of items.
+     * Each task is throttled by GitHub rate limit and checks the listener before start, so that the pool slows down
+     * when the quota drops and stops issuing requests when processing is cancelled. The first failure cancels the remaining tasks and is rethrown.
+     */
+    private <T, R> List<R> mapInParallel(ExecutorService executor, List<T> items, Function<T, R> function)
+    {
+        List<Future<R>> futures = new ArrayList<>( items.size() );
+        for ( T item : items )
+        {
+            futures.add( executor.submit( () -> {
+                if( listener.isCancelled() )
+                    throw new CancellationException( "Repository processing was cancelled" );
+                RateLimitHelper.throttle( repo );
+                return function.apply( item );
+            } ) );
+        }
+        List<R> results = new ArrayList<>( items.size() );
+        try
+        {
+            for ( Future<R> future : futures )
+            {
+                results.add( future.get() );
             }
         }
-        return workflows;
+        catch (InterruptedException e)
+        {
+            futures.forEach( future -> future.cancel( true ) );
+            Thread.currentThread().interrupt();
+            throw new CustomLoggedException( e, "Repository processing was interrupted" );
+        }
+        catch (ExecutionException e)
+        {
+            futures.forEach( future -> future.cancel( true ) );
+            if( e.getCause() instanceof RuntimeException re )
+                throw re;
+            throw new CustomLoggedException( e.getCause() );
+        }
+        return results;
     }
 
+    public FetchMode getFetchMode()
+    {
+        return repo.getFetchMode();
+    }
+
+    /**
+     * @param fetchMode {@link FetchMode#ARCHIVE} downloads each reference once as a tarball instead of file by file
+     */
+    public void setFetchMode(FetchMode fetchMode)
+    {
+        repo.setFetchMode( fetchMode );
+    }
+
+    public IngestionListener getListener()
+    {
+        return listener;
+    }
+
+    public void setListener(IngestionListener listener)
+    {
+        this.listener = listener != null ? listener : IngestionListener.NONE;
+    }
+
+    public int getIngestionThreads()
+    {
+        return ingestionThreads;
+    }
+
+    public void setIngestionThreads(int ingestionThreads)
+    {
+        this.ingestionThreads = Math.max( 1, ingestionThreads );
+    }
+
+    /**
+     * @param workflows workflows with versions of processed references
+     * @param changedReferences names of processed branches and tags, new or moved to another commit
+     * @param removedReferences names of known branches and tags that no longer exist
+     */
+    public record RefreshResult(Map<String, Workflow> workflows, Set<String> changedReferences, Set<String> removedReferences)
+    {
+    }
+
+    private record ReferenceYaml(String reference, GitReferenceInfo info, SourceFile file, DockstoreYaml12 yaml)
+    {
+    }
+
+    private record VersionTask(Workflow workflow, ReferenceYaml referenceYaml, Workflowish entry, boolean useReadMe)
+    {
+    }
 
     public Map<String, Workflow> processRepositoryTest(String repositoryId) throws DockstoreYamlException
     {
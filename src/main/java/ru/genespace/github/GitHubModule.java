@@ -9,5 +9,7 @@ public class GitHubModule extends ServletModule
     protected void configureServlets()
     {
         //bind( GitHubManager.class ).in( Scopes.SINGLETON );
+        bind( GitHubClientRegistry.class ).in( Scopes.SINGLETON );
+        bind( GitHubCacheWarmUp.class ).asEagerSingleton();
     }
 }
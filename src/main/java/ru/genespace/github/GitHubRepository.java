@@ -14,15 +14,22 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -31,6 +38,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpStatus;
 import org.kohsuke.github.GHBlob;
@@ -55,8 +63,11 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 
 import okhttp3.Cache;
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import ru.genespace.content.ContentManager;
+import ru.genespace.content.GitBlobSha;
 import ru.genespace.dockstore.AppTool;
 import ru.genespace.dockstore.Author;
 import ru.genespace.dockstore.DescriptorLanguage;
@@ -96,44 +107,185 @@ public class GitHubRepository
     public static final int SLEEP_AT_RATE_LIMIT_OR_BELOW = 50;
 
     public static final String GITHUB_ABUSE_LIMIT_REACHED = "GitHub abuse limit reached";
+    private static final long DEFAULT_ABUSE_WAIT_SECONDS = 60;
     public static final String REFS_HEADS = "refs/heads/";
+    public static final String REFS_TAGS = "refs/tags/";
     public static final String SUBMODULE = "submodule";
     public static final String SYMLINK = "symlink";
+    public static final String FILE_TOO_LARGE_CONTENT = "Dockstore does not process extremely large files";
 
     private static final int BYTES_IN_KILOBYTE = 1024;
     private static final int KILOBYTES_IN_MEGABYTE = 1024;
-    private static final int CACHE_IN_MB = 100;
+    static final int CACHE_IN_MB = 100;
 
     public static final String DOCKSTORE_WEB_CACHE = "/tmp/dockstore-web-cache";
 
     public static final Pattern GIT_BRANCH_TAG_PATTERN = Pattern
             .compile( "^refs/(tags|heads)/((?!.*//)(?!.*\\^)(?!.*:)(?!.*\\\\)(?!.*@)(?!.*\\[)(?!.*\\?)(?!.*~)(?!.*\\.\\.)[\\p{Punct}\\p{L}\\d\\-_/]+)$" );
 
+    private static final long BLOB_CONTENTS_CACHE_CHARS = 32L * BYTES_IN_KILOBYTE * KILOBYTES_IN_MEGABYTE;
+    /**
+     * Decoded file contents by Git blob SHA, shared by all clients since blob content is immutable.
+     */
+    private static final BlobContentCache BLOB_CONTENTS = new BlobContentCache( BLOB_CONTENTS_CACHE_CHARS );
+
+    public static final long MAXIMUM_ARCHIVE_SIZE = 256L * BYTES_IN_KILOBYTE * KILOBYTES_IN_MEGABYTE;
+    /**
+     * Total size of archives kept by one instance, a download in progress counts as {@link #MAXIMUM_ARCHIVE_SIZE}
+     */
+    static final long MAXIMUM_ARCHIVES_BYTES_IN_MEMORY = 4 * MAXIMUM_ARCHIVE_SIZE;
+    private static final int MAXIMUM_TREES_IN_MEMORY = 64;
+
+    /**
+     * How files of a version are fetched from GitHub
+     */
+    public enum FetchMode
+    {
+        /**
+         * File by file through the Contents API
+         */
+        CONTENTS_API,
+        /**
+         * Tarball of the whole reference is downloaded once and kept in memory, Contents API is used only for submodules
+         */
+        ARCHIVE
+    }
+
+    private FetchMode fetchMode = FetchMode.CONTENTS_API;
+    /**
+     * Names of branches and tags by repository full name
+     */
+    private final Map<String, Set<String>> referenceIndex = new ConcurrentHashMap<>();
+    /**
+     * Archives by {@link #getArchiveKey(GHRepository, String)}, kept until the reference is released
+     */
+    private final Map<String, CompletableFuture<RepositoryArchive>> archives = new ConcurrentHashMap<>();
+    /**
+     * Bytes taken by the archives and reserved by the downloads in progress
+     */
+    private final AtomicLong archiveBytes = new AtomicLong();
+    /**
+     * Parsed .dockstore.yml by blob SHA of its content
+     */
+    private final Map<String, CompletableFuture<ParsedDockstoreYaml>> dockstoreYamls = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<RepositoryTree>> trees = Collections.synchronizedMap( new LinkedHashMap<>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<RepositoryTree>> eldest)
+        {
+            return size() > MAXIMUM_TREES_IN_MEMORY;
+        }
+    } );
+
     private static OkHttpClient okHttpClient = null;
     private static Cache cache = null;
+    private static String cacheDirectory = DOCKSTORE_WEB_CACHE;
+    private static long cacheSizeMb = CACHE_IN_MB;
+    private static volatile int cacheMaxAgeSeconds = GITHUB_MAX_CACHE_AGE_SECONDS;
+    private static HttpSettings httpSettings = HttpSettings.DEFAULT;
+
+    /**
+     * Timeouts in seconds, 0 means no timeout. Up to maxConnections requests are sent to GitHub at once and kept idle in
+     * the pool. Idempotent requests are repeated up to retries times.
+     */
+    public record HttpSettings(int connectTimeoutSeconds, int readTimeoutSeconds, int maxConnections, int retries)
+    {
+        public static final HttpSettings DEFAULT = new HttpSettings( 10, 60, 16, 3 );
+
+        public HttpSettings
+        {
+            if( connectTimeoutSeconds < 0 || readTimeoutSeconds < 0 || maxConnections < 1 || retries < 0 )
+                throw new IllegalArgumentException( "Invalid GitHub HTTP settings: " + connectTimeoutSeconds + ", " + readTimeoutSeconds + ", " + maxConnections + ", "
+                        + retries );
+        }
+    }
+
+    /**
+     * Sets HTTP client parameters. If the shared client is already created, it is rebuilt, and GitHub clients created
+     * before the call keep using the old one until they are created again.
+     *
+     * @return true if the shared client was rebuilt
+     */
+    public static synchronized boolean configureHttp(HttpSettings settings)
+    {
+        if( settings.equals( httpSettings ) )
+            return false;
+        httpSettings = settings;
+        if( okHttpClient == null )
+            return false;
+        LOG.info( "GitHub HTTP settings changed, rebuilding the HTTP client" );
+        ConnectionPool previousPool = okHttpClient.connectionPool();
+        okHttpClient = buildHttpClient();
+        previousPool.evictAll();
+        return true;
+    }
+
+    /**
+     * Sets location and size of the HTTP disk cache, takes effect only before the first client is created. Max age
+     * applies to clients created after the call.
+     * 
+     * @param directory cache directory, a persistent one keeps the cache warm across restarts
+     * @param sizeMb maximum cache size in MiB
+     * @param maxAgeSeconds how long responses are used without revalidation
+     */
+    public static synchronized void configureCache(String directory, long sizeMb, int maxAgeSeconds)
+    {
+        cacheMaxAgeSeconds = maxAgeSeconds;
+        if( directory.equals( cacheDirectory ) && sizeMb == cacheSizeMb )
+            return;
+        if( cache != null )
+        {
+            LOG.warn( "GitHub HTTP cache is already open in " + cacheDirectory + ", new location or size is used after restart" );
+            return;
+        }
+        cacheDirectory = directory;
+        cacheSizeMb = sizeMb;
+    }
+
     /**
      * @param githubTokenUsername the username for githubTokenContent
      * @param githubTokenContent authorization token
      */
     public GitHubRepository(String githubTokenUsername, String githubTokenContent, Long installationId)
     {
-        initialize();
+        this( createClient( githubTokenUsername, githubTokenContent ), githubTokenUsername );
+    }
+
+    /**
+     * Uses already built client, so that its connection pool and HTTP cache are shared
+     * 
+     * @param github client created by {@link #createClient(String, String)}
+     * @param githubTokenUsername the username of the client token, null for anonymous client
+     */
+    public GitHubRepository(GitHub github, String githubTokenUsername)
+    {
+        this.github = github;
         this.githubTokenUsername = githubTokenUsername;
         this.gitUsername = githubTokenUsername != null ? githubTokenUsername : "Unauthenticated";
+    }
+
+    public String getGitUsername()
+    {
+        return gitUsername;
+    }
+
+    /**
+     * Builds GitHub client on top of the shared OkHttp client and disk cache
+     * 
+     * @param githubTokenUsername the username for githubTokenContent
+     * @param githubTokenContent authorization token, anonymous client is created if it or username is null
+     */
+    public static GitHub createClient(String githubTokenUsername, String githubTokenContent)
+    {
+        initialize();
         try
         {
             if( githubTokenUsername != null && githubTokenContent != null )
             {
-                final GitHubBuilder gitHubBuilder = getBuilder( githubTokenUsername ).withOAuthToken( githubTokenContent, githubTokenUsername );
-                this.github = gitHubBuilder.build();
+                return getBuilder( githubTokenUsername ).withOAuthToken( githubTokenContent, githubTokenUsername ).build();
             }
-            else
-            {
-                //Anonymous authorization
-                final GitHubBuilder gitHubBuilder = getBuilder( githubTokenUsername );
-                this.github = gitHubBuilder.build();
-            }
-
+            //Anonymous authorization
+            return getBuilder( githubTokenUsername ).build();
         }
         catch (IOException e)
         {
@@ -141,8 +293,15 @@ public class GitHubRepository
         }
     }
 
-    private void initialize()
+    /**
+     * Creates the shared OkHttp client and disk cache once per JVM
+     */
+    private static synchronized void initialize()
     {
+        if( okHttpClient != null )
+        {
+            return;
+        }
         if( cache == null )
         {
             cache = generateCache( null );
@@ -156,12 +315,11 @@ public class GitHubRepository
             LOG.error( "Could not create web cache, initialization exception", e );
             throw new RuntimeException( e );
         }
-        // match HttpURLConnection which does not have a timeout by default
-        OkHttpClient.Builder builder = new OkHttpClient().newBuilder();
-        okHttpClient = builder.cache( cache ).connectTimeout( 0, TimeUnit.SECONDS ).readTimeout( 0, TimeUnit.SECONDS ).writeTimeout( 0, TimeUnit.SECONDS ).build();
+        okHttpClient = buildHttpClient();
         try
         {
             // this can only be called once per JVM, a factory exception is thrown in our tests
+            // the handler keeps the first client when HTTP settings are changed later
             URL.setURLStreamHandlerFactory( new ObsoleteUrlFactory( okHttpClient ) );
         }
         catch (Error factoryException)
@@ -178,6 +336,18 @@ public class GitHubRepository
         }
     }
 
+    private static OkHttpClient buildHttpClient()
+    {
+        // stalled connection should not hang a request thread, HTTP/2 multiplexes parallel ingestion over few connections.
+        // Dispatcher limits apply only to async calls, GitHub client calls are synchronous and limited by the interceptor
+        OkHttpClient.Builder builder = new OkHttpClient().newBuilder();
+        return builder.cache( cache ).connectTimeout( httpSettings.connectTimeoutSeconds(), TimeUnit.SECONDS )
+                .readTimeout( httpSettings.readTimeoutSeconds(), TimeUnit.SECONDS ).writeTimeout( httpSettings.readTimeoutSeconds(), TimeUnit.SECONDS )
+                .connectionPool( new ConnectionPool( httpSettings.maxConnections(), 5, TimeUnit.MINUTES ) )
+                .protocols( List.of( Protocol.HTTP_2, Protocol.HTTP_1_1 ) ).addInterceptor( new RetryInterceptor( httpSettings.retries() ) )
+                .addNetworkInterceptor( new ConcurrencyLimitInterceptor( httpSettings.maxConnections() ) ).build();
+    }
+
     public GitHubRepository(long installationId)
     {
         this( null, null, installationId );
@@ -199,12 +369,14 @@ public class GitHubRepository
         //TODO: fix
         OkHttpClient.Builder builder = okHttpClient.newBuilder();
         builder.eventListener( new CacheHitListener( GitHubRepository.class.getSimpleName(), cacheNamespace ) );
+        // rate limit is accounted from response headers instead of /rate_limit requests
+        builder.addNetworkInterceptor( new RateLimitInterceptor() );
         builder.cache( getCache( null ) );
         OkHttpClient build = builder.build();
         // Must set the cache max age otherwise kohsuke assumes 0 which significantly slows down our GitHub requests
-        OkHttpGitHubConnector okHttp3Connector = new OkHttpGitHubConnector( build, GITHUB_MAX_CACHE_AGE_SECONDS );
-        GitHubBuilder gitHubBuilder = new GitHubBuilder().withAbuseLimitHandler( new FailAbuseLimitHandler( cacheNamespace ) ).withConnector( okHttp3Connector );
-        gitHubBuilder = gitHubBuilder.withRateLimitHandler( new FailRateLimitHandler( cacheNamespace ) );
+        OkHttpGitHubConnector okHttp3Connector = new OkHttpGitHubConnector( build, cacheMaxAgeSeconds );
+        GitHubBuilder gitHubBuilder = new GitHubBuilder().withAbuseLimitHandler( new ThrottlingAbuseLimitHandler( cacheNamespace ) ).withConnector( okHttp3Connector );
+        gitHubBuilder = gitHubBuilder.withRateLimitHandler( new ThrottlingRateLimitHandler( cacheNamespace ) );
         return gitHubBuilder;
     }
 
@@ -222,14 +394,14 @@ public class GitHubRepository
 
     private static Cache generateCache(String suffix)
     {
-        int cacheSize = CACHE_IN_MB * BYTES_IN_KILOBYTE * KILOBYTES_IN_MEGABYTE; // 100 MiB
+        long cacheSize = cacheSizeMb * BYTES_IN_KILOBYTE * KILOBYTES_IN_MEGABYTE; // 100 MiB by default
         final File cacheDir;
         try
         {
             // let's try using the same cache each time
             // not sure how corruptible/non-corruptible the cache is
             // namespace cache when testing on circle ci
-            cacheDir = Files.createDirectories( Paths.get( DOCKSTORE_WEB_CACHE + (suffix == null ? "" : "/" + suffix) ) ).toFile();
+            cacheDir = Files.createDirectories( Paths.get( cacheDirectory + (suffix == null ? "" : "/" + suffix) ) ).toFile();
         }
         catch (IOException e)
         {
@@ -239,11 +411,14 @@ public class GitHubRepository
         return new Cache( cacheDir, cacheSize );
     }
 
-    private static final class FailAbuseLimitHandler extends GitHubAbuseLimitHandler
+    /**
+     * Background work waits for Retry-After and the request is repeated, interactive requests fail fast
+     */
+    private static final class ThrottlingAbuseLimitHandler extends GitHubAbuseLimitHandler
     {
         private final String username;
 
-        private FailAbuseLimitHandler(String username)
+        private ThrottlingAbuseLimitHandler(String username)
         {
             this.username = username;
         }
@@ -252,19 +427,23 @@ public class GitHubRepository
         public void onError(GitHubConnectorResponse connectorResponse)
         {
             LOG.error( GITHUB_ABUSE_LIMIT_REACHED + " for " + username );
-            throw new CustomLoggedException( GITHUB_ABUSE_LIMIT_REACHED );
+            if( !RateLimitHelper.isBackground() )
+                throw new CustomLoggedException( GITHUB_ABUSE_LIMIT_REACHED );
+            long waitSeconds = parseHeader( connectorResponse.header( "Retry-After" ), DEFAULT_ABUSE_WAIT_SECONDS );
+            waitAndRetry( TimeUnit.SECONDS.toMillis( waitSeconds ), GITHUB_ABUSE_LIMIT_REACHED );
         }
     }
 
     /**
-     * 1. This logs username 2. We control the string in the error message
+     * 1. This logs username 2. We control the string in the error message 3. Background work sleeps until the reset
+     * and the request is repeated, interactive requests fail fast
      */
-    private static final class FailRateLimitHandler extends GitHubRateLimitHandler
+    private static final class ThrottlingRateLimitHandler extends GitHubRateLimitHandler
     {
 
         private final String username;
 
-        private FailRateLimitHandler(String username)
+        private ThrottlingRateLimitHandler(String username)
         {
             this.username = username;
         }
@@ -273,7 +452,41 @@ public class GitHubRepository
         public void onError(GitHubConnectorResponse connectorResponse)
         {
             LOG.error( OUT_OF_GIT_HUB_RATE_LIMIT + " for " + username );
-            throw new CustomLoggedException( OUT_OF_GIT_HUB_RATE_LIMIT );
+            if( !RateLimitHelper.isBackground() )
+                throw new CustomLoggedException( OUT_OF_GIT_HUB_RATE_LIMIT );
+            long resetEpochSeconds = parseHeader( connectorResponse.header( "X-RateLimit-Reset" ), 0 );
+            long waitMs = resetEpochSeconds > 0 ? TimeUnit.SECONDS.toMillis( resetEpochSeconds ) - System.currentTimeMillis()
+                    : TimeUnit.SECONDS.toMillis( DEFAULT_ABUSE_WAIT_SECONDS );
+            waitAndRetry( Math.max( waitMs, 0 ) + RateLimitHelper.RESET_MARGIN_MS, OUT_OF_GIT_HUB_RATE_LIMIT );
+        }
+    }
+
+    private static long parseHeader(String value, long defaultValue)
+    {
+        try
+        {
+            return value != null ? Long.parseLong( value.trim() ) : defaultValue;
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returning from a limit handler makes the client repeat the request
+     */
+    private static void waitAndRetry(long waitMs, String reason)
+    {
+        LOG.info( reason + ", waiting " + TimeUnit.MILLISECONDS.toSeconds( waitMs ) + " seconds before retry" );
+        try
+        {
+            Thread.sleep( waitMs );
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CustomLoggedException( reason );
         }
     }
 
@@ -336,7 +549,40 @@ public class GitHubRepository
      */
     public String readFileFromRepo(final String originalFileName, final String originalReference, final GHRepository originalRepo)
     {
-        GHRateLimit startRateLimit = null;
+        RepositoryArchive archive = fetchMode == FetchMode.ARCHIVE ? getArchive( originalRepo, originalReference ) : null;
+        if( archive != null && !archive.mayBeSubmodule( originalFileName ) )
+        {
+            return archive.readFile( originalFileName );
+        }
+        RepositoryTree tree = archive == null ? getTree( originalRepo, originalReference ) : null;
+        if( tree != null )
+        {
+            try
+            {
+                RepositoryTree.Entry entry = tree.resolve( originalFileName, sha -> readBlob( originalRepo, sha ) );
+                if( entry == null || entry.isDirectory() )
+                {
+                    return null;
+                }
+                // files in submodules are looked up through the Contents API below
+                if( !entry.isSubmodule() )
+                {
+                    if( entry.size() > MAXIMUM_FILE_DOWNLOAD_SIZE )
+                    {
+                        LOG.warn( gitUsername + ": file too large in readFileFromRepo " + originalFileName + " from repository " + originalRepo.getFullName() + ":"
+                                + originalReference );
+                        return FILE_TOO_LARGE_CONTENT;
+                    }
+                    return readBlob( originalRepo, entry.sha() );
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.warn( gitUsername + ": could not read " + originalFileName + " using tree of " + originalRepo.getFullName() + ":" + originalReference
+                        + ", falling back to Contents API, " + e.getMessage() );
+            }
+        }
+        RequestStats.Snapshot startRequests = RequestStats.snapshot();
         // when looking through submodules, we always look for a specific commit
         boolean submoduleRedirected = false;
         GHRepository repo = originalRepo;
@@ -344,8 +590,6 @@ public class GitHubRepository
         String fileName = originalFileName;
         try
         {
-            startRateLimit = getGhRateLimitQuietly();
-
             // may need to pass owner from git url, as this may differ from the git username
             List<String> folders = Arrays.asList( fileName.split( "/" ) );
             List<String> start = new ArrayList<>();
@@ -430,11 +674,9 @@ public class GitHubRepository
                     if( size > MAXIMUM_FILE_DOWNLOAD_SIZE )
                     {
                         LOG.warn( gitUsername + ": file too large in readFileFromRepo " + fileName + " from repository " + repo.getFullName() + ":" + reference );
-                        return "Dockstore does not process extremely large files";
+                        return FILE_TOO_LARGE_CONTENT;
                     }
-                    String sha = decodedContentAndMetadata.getLeft().getSha();
-                    GHBlob blob = repo.getBlob( sha );
-                    content = IOUtils.toString( blob.read(), StandardCharsets.UTF_8 );
+                    content = readBlob( repo, decodedContentAndMetadata.getLeft().getSha() );
                 }
                 return content;
             }
@@ -446,11 +688,254 @@ public class GitHubRepository
         }
         finally
         {
-            GHRateLimit endRateLimit = getGhRateLimitQuietly();
-            reportOnRateLimit( "readFileFromRepo", startRateLimit, endRateLimit );
+            RequestStats.report( "readFileFromRepo", startRequests );
+        }
+    }
+
+    /**
+     * Returns the tree of the reference downloaded as a tarball, loading it once for all concurrent callers.
+     * 
+     * @return archive or null if it is not available, in which case Contents API should be used
+     */
+    private RepositoryArchive getArchive(GHRepository repo, String reference)
+    {
+        return getArchive( getArchiveKey( repo, reference ), () -> repo.readTar( is -> RepositoryArchive.read( is, MAXIMUM_ARCHIVE_SIZE ), reference ) );
+    }
+
+    /**
+     * Reads the archive of a reference
+     */
+    @FunctionalInterface
+    interface ArchiveReader
+    {
+        RepositoryArchive read() throws IOException;
+    }
+
+    /**
+     * Returns the archive of the key, loading it once for all concurrent callers. The archive is kept until
+     * {@link #releaseArchive(GHRepository, String)}, a download reserves {@link #MAXIMUM_ARCHIVE_SIZE} bytes and gives
+     * back what the archive does not take. A failed download is tried again by the next caller, an archive exceeding
+     * the size limit is not downloaded again.
+     * 
+     * @return archive or null if it is too large, could not be downloaded or does not fit into memory now
+     */
+    RepositoryArchive getArchive(String key, ArchiveReader reader)
+    {
+        try
+        {
+            return loadShared( archives, key, () -> {
+                if( !reserveArchiveBytes( MAXIMUM_ARCHIVE_SIZE ) )
+                {
+                    throw new CustomLoggedException( "no memory left for the archive of " + key );
+                }
+                RepositoryArchive archive = null;
+                try
+                {
+                    archive = reader.read();
+                    return archive;
+                }
+                catch (IOException e)
+                {
+                    // the client may wrap the exception thrown while reading the stream
+                    if( ExceptionUtils.indexOfType( e, RepositoryArchive.TooLargeException.class ) >= 0 )
+                    {
+                        LOG.info( gitUsername + ": archive of " + key + " is not used, " + e.getMessage() );
+                        return null;
+                    }
+                    LOG.warn( gitUsername + ": could not read archive of " + key + ", falling back to Contents API, " + e.getMessage() );
+                    throw new CustomLoggedException( e, "could not read archive of " + key );
+                }
+                finally
+                {
+                    archiveBytes.addAndGet( (archive == null ? 0 : archive.getSize()) - MAXIMUM_ARCHIVE_SIZE );
+                }
+            } );
+        }
+        catch (CustomLoggedException e)
+        {
+            LOG.debug( gitUsername + ": " + e.getMessage() + ", using Contents API" );
+            return null;
+        }
+    }
+
+    private boolean reserveArchiveBytes(long bytes)
+    {
+        long reserved;
+        do
+        {
+            reserved = archiveBytes.get();
+            if( reserved + bytes > MAXIMUM_ARCHIVES_BYTES_IN_MEMORY )
+                return false;
+        }
+        while( !archiveBytes.compareAndSet( reserved, reserved + bytes ) );
+        return true;
+    }
+
+    /**
+     * Drops the archive of the reference when its versions are created, so that other references can use the memory
+     */
+    public void releaseArchive(GHRepository repo, String reference)
+    {
+        releaseArchive( getArchiveKey( repo, reference ) );
+    }
+
+    void releaseArchive(String key)
+    {
+        CompletableFuture<RepositoryArchive> archive = archives.remove( key );
+        // an archive still being downloaded gives back its bytes when the download completes
+        if( archive != null )
+        {
+            archive.thenAccept( loaded -> {
+                if( loaded != null )
+                    archiveBytes.addAndGet( -loaded.getSize() );
+            } );
         }
     }
 
+    long getArchiveBytes()
+    {
+        return archiveBytes.get();
+    }
+
+    /**
+     * Full and short names of a branch or a tag share one archive
+     */
+    private static String getArchiveKey(GHRepository repo, String reference)
+    {
+        return repo.getFullName() + "@" + StringUtils.removeStart( StringUtils.removeStart( reference, REFS_HEADS ), REFS_TAGS );
+    }
+
+    /**
+     * Returns the value of the key from the map, the first caller loads it and concurrent callers wait for that load.
+     * A failed load is removed from the map, so that the next caller tries again, and its exception is thrown to the
+     * callers waiting for it.
+     */
+    static <T> T loadShared(Map<String, CompletableFuture<T>> loaded, String key, Supplier<T> loader)
+    {
+        CompletableFuture<T> loading = new CompletableFuture<>();
+        CompletableFuture<T> existing = loaded.putIfAbsent( key, loading );
+        if( existing != null )
+        {
+            try
+            {
+                return existing.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new CustomLoggedException( e, "Interrupted while waiting for " + key );
+            }
+            catch (ExecutionException e)
+            {
+                if( e.getCause() instanceof RuntimeException runtimeException )
+                    throw runtimeException;
+                if( e.getCause() instanceof Error error )
+                    throw error;
+                throw new CustomLoggedException( e.getCause(), "Could not load " + key );
+            }
+        }
+        try
+        {
+            T value = loader.get();
+            loading.complete( value );
+            return value;
+        }
+        catch (Throwable t)
+        {
+            loaded.remove( key, loading );
+            loading.completeExceptionally( t );
+            throw t;
+        }
+    }
+
+    /**
+     * Returns the path index of the reference, loading it once for all concurrent callers.
+     * 
+     * @return tree or null if it could not be loaded or is truncated, in which case Contents API should be used
+     */
+    private RepositoryTree getTree(GHRepository repo, String reference)
+    {
+        String key = repo.getFullName() + "@" + reference;
+        return loadShared( trees, key, () -> {
+            try
+            {
+                RepositoryTree tree = RepositoryTree.of( repo.getTreeRecursive( reference, 1 ) );
+                if( tree == null )
+                {
+                    LOG.info( gitUsername + ": tree of " + key + " is truncated, falling back to Contents API" );
+                }
+                return tree;
+            }
+            catch (IOException e)
+            {
+                LOG.warn( gitUsername + ": could not read tree of " + key + ", falling back to Contents API, " + e.getMessage() );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Reads blob content through the blob endpoint, blobs already seen are served from memory.
+     */
+    private String readBlob(GHRepository repo, String sha) throws IOException
+    {
+        String content = BLOB_CONTENTS.get( sha );
+        if( content == null )
+        {
+            GHBlob blob = repo.getBlob( sha );
+            content = IOUtils.toString( blob.read(), StandardCharsets.UTF_8 );
+            BLOB_CONTENTS.put( sha, content );
+        }
+        return content;
+    }
+
+    /**
+     * Drops archives and trees of references kept during ingestion
+     */
+    public void releaseReferenceContents()
+    {
+        archives.keySet().forEach( this::releaseArchive );
+        trees.clear();
+        dockstoreYamls.clear();
+    }
+
+    /**
+     * Parses .dockstore.yml once per distinct content: the file is usually identical across many branches and tags,
+     * so the result, or the validation error, is kept by Git blob SHA of the content until
+     * {@link #releaseReferenceContents()}. Returned objects are shared and must not be modified. Concurrent reads of the
+     * same content wait for one parse, which runs outside of the map lock.
+     */
+    public DockstoreYaml12 readDockstoreYaml12(String content, boolean validateEntries) throws DockstoreYamlHelper.DockstoreYamlException
+    {
+        ParsedDockstoreYaml parsed = loadShared( dockstoreYamls, GitBlobSha.of( content ) + (validateEntries ? ":validated" : ""), () -> {
+            try
+            {
+                return new ParsedDockstoreYaml( DockstoreYamlHelper.readAsDockstoreYaml12( content, validateEntries ), null );
+            }
+            catch (DockstoreYamlHelper.DockstoreYamlException e)
+            {
+                return new ParsedDockstoreYaml( null, e );
+            }
+        } );
+        if( parsed.error() != null )
+            throw new DockstoreYamlHelper.DockstoreYamlException( parsed.error().getMessage(), parsed.error() );
+        return parsed.yaml();
+    }
+
+    private record ParsedDockstoreYaml(DockstoreYaml12 yaml, DockstoreYamlHelper.DockstoreYamlException error)
+    {
+    }
+
+    public FetchMode getFetchMode()
+    {
+        return fetchMode;
+    }
+
+    public void setFetchMode(FetchMode fetchMode)
+    {
+        this.fetchMode = fetchMode;
+    }
+
     /**
      * For a given file, in a github repo, with a particular cleaned reference name.
      * 
@@ -467,10 +952,8 @@ public class GitHubRepository
         String fullPathNoEndSeparator = FilenameUtils.getFullPathNoEndSeparator( fileName );
         // but tags on quay.io that do not match github are costly, avoid by checking cached references
 
-        GHRef[] branchesAndTags = getBranchesAndTags( repo );
-
         // only look at github if the reference exists
-        if( !submoduleRedirected && Lists.newArrayList( branchesAndTags ).stream().noneMatch( ref -> ref.getRef().contains( reference ) ) )
+        if( !submoduleRedirected && !referenceExists( repo, reference ) )
         {
             return null;
         }
@@ -486,6 +969,12 @@ public class GitHubRepository
                 // directories do not have content directly
                 return null;
             }
+            // the same blob was already downloaded for another reference or path
+            String knownContent = BLOB_CONTENTS.get( content.getSha() );
+            if( knownContent != null )
+            {
+                return Pair.of( content, knownContent );
+            }
             // need to double-check whether this is a symlink by getting the specific file which sucks
             GHContent fileContent = repo.getFileContent( content.getPath(), reference );
             try
@@ -496,7 +985,13 @@ public class GitHubRepository
                     return Pair.of( fileContent, fileContent.getGitUrl() );
                 }
                 // this is deprecated, but getContent() seems to be the only way to get the actual content, rather than the content of the symbolic link
-                return Pair.of( fileContent, fileContent.getContent() );
+                String decodedContent = fileContent.getContent();
+                // remember regular files only, a resolved symbolic link has the sha of its target instead of the listed one
+                if( "file".equals( fileContent.getType() ) && Objects.equals( fileContent.getSha(), content.getSha() ) && !"none".equals( fileContent.getEncoding() ) )
+                {
+                    BLOB_CONTENTS.put( content.getSha(), decodedContent );
+                }
+                return Pair.of( fileContent, decodedContent );
             }
             catch (NullPointerException ex)
             {
@@ -524,6 +1019,14 @@ public class GitHubRepository
         return startRateLimit;
     }
 
+    /**
+     * @return the rate limit observed in the most recent GitHub response, does not issue a request
+     */
+    public GHRateLimit getLastRateLimit()
+    {
+        return github.lastRateLimit();
+    }
+
     public void reportOnRateLimit(String id, GHRateLimit startRateLimit, GHRateLimit endRateLimit)
     {
         if( startRateLimit != null && endRateLimit != null )
@@ -595,6 +1098,43 @@ public class GitHubRepository
         return ArrayUtils.addAll( branches, tags );
     }
 
+    /**
+     * Checks whether the branch or tag exists using the reference index of the repository. The index is built by the
+     * first call for a repository and kept until {@link #refreshReferenceIndex(GHRepository)} is called.
+     * 
+     * @param repo GitHub repository
+     * @param reference branch or tag name, either short (main) or full (refs/heads/main)
+     */
+    public boolean referenceExists(GHRepository repo, String reference) throws IOException
+    {
+        Set<String> refNames = referenceIndex.get( repo.getFullName() );
+        if( refNames == null )
+        {
+            refNames = refreshReferenceIndex( repo );
+        }
+        return refNames.contains( reference ) || refNames.contains( REFS_HEADS + reference ) || refNames.contains( REFS_TAGS + reference );
+    }
+
+    /**
+     * Reloads branches and tags of the repository into the reference index.
+     * 
+     * @return names of references, like refs/heads/main
+     */
+    public Set<String> refreshReferenceIndex(GHRepository repo) throws IOException
+    {
+        return indexReferences( repo, getBranchesAndTags( repo ) );
+    }
+
+    /**
+     * Replaces the reference index of the repository with already fetched references.
+     */
+    public Set<String> indexReferences(GHRepository repo, GHRef[] refs)
+    {
+        Set<String> refNames = Arrays.stream( refs ).map( GHRef::getRef ).collect( Collectors.toUnmodifiableSet() );
+        referenceIndex.put( repo.getFullName(), refNames );
+        return refNames;
+    }
+
     //    public Workflow setupWorkflowVersions(String repositoryId, Workflow workflow, Optional<Workflow> existingWorkflow, Map<String, WorkflowVersion> existingDefaults,
     //            Optional<String> versionName, boolean hardRefresh)
     //    {
@@ -923,7 +1463,7 @@ public class GitHubRepository
         List<String> files;
         try
         {
-            final DockstoreYaml12 dockstoreYaml12 = DockstoreYamlHelper.readAsDockstoreYaml12( dockstoreYml.getContent() );
+            final DockstoreYaml12 dockstoreYaml12 = readDockstoreYaml12( dockstoreYml.getContent(), false );
             final Service12 service = dockstoreYaml12.getService();
             if( service == null )
             {
@@ -977,7 +1517,7 @@ public class GitHubRepository
         List<String> testParameterPaths = null;
         try
         {
-            final DockstoreYaml12 dockstoreYaml12 = DockstoreYamlHelper.readAsDockstoreYaml12( dockstoreYml.getContent() );
+            final DockstoreYaml12 dockstoreYaml12 = readDockstoreYaml12( dockstoreYml.getContent(), false );
             // TODO: Need to handle services; the YAML is guaranteed to have at least one of either
             List<? extends Workflowish> workflows;
             if( workflow instanceof Notebook )
@@ -1450,6 +1990,23 @@ public class GitHubRepository
         try
         {
             repo = github.getRepository( repositoryId );
+            RepositoryArchive archive = fetchMode == FetchMode.ARCHIVE ? getArchive( repo, reference ) : null;
+            if( archive != null )
+            {
+                List<String> names = archive.listFiles( pathToDirectory );
+                if( names != null || !archive.mayBeSubmodule( pathToDirectory ) )
+                    return names;
+            }
+            RepositoryTree tree = archive == null ? getTree( repo, reference ) : null;
+            if( tree != null )
+            {
+                GHRepository treeRepo = repo;
+                RepositoryTree.Entry entry = tree.resolve( pathToDirectory, sha -> readBlob( treeRepo, sha ) );
+                if( entry == null )
+                    return null;
+                if( !entry.isSubmodule() )
+                    return tree.listFiles( entry );
+            }
             List<GHContent> directoryContent = repo.getDirectoryContent( pathToDirectory, reference );
             return directoryContent.stream().map( GHContent::getName ).toList();
         }
@@ -1571,6 +2128,18 @@ public class GitHubRepository
 
     public WorkflowVersion addDockstoreYmlVersionToWorkflow(String repository, String gitReference, SourceFile dockstoreYml, Workflow workflow, boolean latestTagAsDefault,
             List<YamlAuthor> yamlAuthors)
+    {
+        WorkflowVersion workflowVersion = createDockstoreYmlVersion( repository, gitReference, dockstoreYml, workflow, yamlAuthors );
+        attachDockstoreYmlVersion( repository, workflow, workflowVersion, latestTagAsDefault );
+        return workflowVersion;
+    }
+
+    /**
+     * Creates a version for the given reference without attaching it to the workflow. The workflow is only read, so
+     * versions of the same workflow can be created concurrently and attached afterwards with
+     * {@link #attachDockstoreYmlVersion(String, Workflow, WorkflowVersion, boolean)}.
+     */
+    public WorkflowVersion createDockstoreYmlVersion(String repository, String gitReference, SourceFile dockstoreYml, Workflow workflow, List<YamlAuthor> yamlAuthors)
     {
         LanguageHandlerInterface languageHandler = LanguageHandlerFactory.getInterface( workflow.getDescriptorType().getFileType() );
         try
@@ -1589,25 +2158,10 @@ public class GitHubRepository
             // Mark the version as valid/invalid.
             remoteWorkflowVersion.setValid( isValidVersion( remoteWorkflowVersion ) );
 
-
-            workflow.addWorkflowVersion( remoteWorkflowVersion );
-            WorkflowVersion workflowVersion = remoteWorkflowVersion;
-
             //???FileFormatHelper.updateFileFormats(workflow, Set.of(updatedWorkflowVersion), fileFormatDAO, false);
 
-            // If this version corresponds to the latest tag, make it the default version, if appropriate.
-            setDefaultVersionToLatestTagIfAppropriate( latestTagAsDefault, workflow, workflowVersion );
-
-            // If this version corresponds to the GitHub default branch, make it the default version, if appropriate.
-            setDefaultVersionToGitHubDefaultIfAppropriate( latestTagAsDefault, workflow, workflowVersion, repository );
-            
-            checkAndAddDockerImages( repository, workflowVersion, languageHandler );
-
-            // Log that we've successfully added the version.
-            LOG.info( "Version " + remoteWorkflowVersion.getName() + " has been added to workflow " + workflow.getWorkflowPath() + "." );
-
-            return workflowVersion;
-
+            checkAndAddDockerImages( repository, remoteWorkflowVersion, languageHandler );
+            return remoteWorkflowVersion;
         }
         catch (IOException | CustomLoggedException ex)
         {
@@ -1617,6 +2171,24 @@ public class GitHubRepository
         }
     }
 
+    /**
+     * Adds a version created by {@link #createDockstoreYmlVersion(String, String, SourceFile, Workflow, List)} to the
+     * workflow and updates the default version. Not thread safe, must be called for one workflow at a time.
+     */
+    public void attachDockstoreYmlVersion(String repository, Workflow workflow, WorkflowVersion workflowVersion, boolean latestTagAsDefault)
+    {
+        workflow.addWorkflowVersion( workflowVersion );
+
+        // If this version corresponds to the latest tag, make it the default version, if appropriate.
+        setDefaultVersionToLatestTagIfAppropriate( latestTagAsDefault, workflow, workflowVersion );
+
+        // If this version corresponds to the GitHub default branch, make it the default version, if appropriate.
+        setDefaultVersionToGitHubDefaultIfAppropriate( latestTagAsDefault, workflow, workflowVersion, repository );
+
+        // Log that we've successfully added the version.
+        LOG.info( "Version " + workflowVersion.getName() + " has been added to workflow " + workflow.getWorkflowPath() + "." );
+    }
+
     private void checkAndAddDockerImages(String repository, WorkflowVersion version, LanguageHandlerInterface languageHandler)
     {
 
@@ -0,0 +1,37 @@
+package ru.genespace.github;
+
+/**
+ * Receives progress of {@link GitHubManager#processRepository(String)} and may stop it.
+ * Methods are called from ingestion worker threads.
+ */
+public interface IngestionListener
+{
+    IngestionListener NONE = new IngestionListener()
+    {
+    };
+
+    /**
+     * @param total number of branches and tags that will be processed
+     */
+    default void referencesFound(int total)
+    {
+    }
+
+    /**
+     * Called once for every reference when all its versions are created
+     *
+     * @param reference full reference name, like refs/heads/main
+     */
+    default void referenceProcessed(String reference)
+    {
+    }
+
+    /**
+     * @return true to stop processing, the remaining tasks are not started and processRepository throws
+     *         {@link java.util.concurrent.CancellationException}
+     */
+    default boolean isCancelled()
+    {
+        return false;
+    }
+}
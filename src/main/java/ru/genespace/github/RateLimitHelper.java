@@ -19,12 +19,63 @@ package ru.genespace.github;
 
 import org.kohsuke.github.GHRateLimit;
 
+import ru.genespace.misc.CustomLoggedException;
+
 public final class RateLimitHelper {
 
+    /**
+     * Below this share of the quota background requests are spread evenly until the reset
+     */
+    static final double SLOW_DOWN_BELOW_FRACTION = 0.2;
+    static final long MAX_SPREAD_DELAY_MS = 10_000;
+    /**
+     * Added to waits until reset, so that the first request after waiting does not hit the old window
+     */
+    static final long RESET_MARGIN_MS = 1_000;
+
+    private static final ThreadLocal<Boolean> BACKGROUND = ThreadLocal.withInitial( () -> false );
+
     private RateLimitHelper() {
         // This space intentionally left blank.
     }
 
+    /**
+     * Marks GitHub requests of the current thread as background work, which waits for the quota instead of failing
+     */
+    public static void setBackground(boolean background)
+    {
+        BACKGROUND.set( background );
+    }
+
+    public static boolean isBackground()
+    {
+        return BACKGROUND.get();
+    }
+
+    /**
+     * @return how long to wait before the next request, 0 for interactive requests or if there is enough quota
+     * @throws CustomLoggedException if an interactive request would exhaust the quota
+     */
+    static long getThrottleDelay(GHRateLimit.Record core)
+    {
+        long untilReset = core.getResetDate().getTime() - System.currentTimeMillis();
+        if( untilReset <= 0 )
+            return 0;
+        int remaining = core.getRemaining();
+        if( remaining <= GitHubRepository.SLEEP_AT_RATE_LIMIT_OR_BELOW )
+        {
+            if( !isBackground() )
+            {
+                GitHubRepository.LOG.error( GitHubRepository.OUT_OF_GIT_HUB_RATE_LIMIT + ", " + remaining + " requests left until " + core.getResetDate() );
+                throw new CustomLoggedException( GitHubRepository.OUT_OF_GIT_HUB_RATE_LIMIT );
+            }
+            return untilReset + RESET_MARGIN_MS;
+        }
+        if( isBackground() && remaining < core.getLimit() * SLOW_DOWN_BELOW_FRACTION )
+            return Math.min( untilReset / remaining, MAX_SPREAD_DELAY_MS );
+        return 0;
+    }
+
     public static Reporter reporter(GitHubRepository repo, String methodName)
     {
         return new Reporter(repo, methodName);
@@ -35,22 +86,38 @@ public final class RateLimitHelper {
         return reporter(repo, StackWalker.getInstance().walk(stream -> stream.skip(1).findFirst()).map(StackWalker.StackFrame::getMethodName).orElse("unknown"));
     }
 
+    /**
+     * Slows request issue as the last observed core quota drops. When it is at or below
+     * {@link GitHubRepository#SLEEP_AT_RATE_LIMIT_OR_BELOW} background work sleeps until the reset, interactive requests
+     * fail fast. Uses the rate limit from the latest response, so it does not cost a request.
+     */
+    public static void throttle(GitHubRepository repo) throws InterruptedException
+    {
+        long delay = getThrottleDelay( repo.getLastRateLimit().getCore() );
+        if( delay > 0 )
+        {
+            if( delay > MAX_SPREAD_DELAY_MS )
+                GitHubRepository.LOG.info( "GitHub quota is exhausted, waiting " + delay / 1000 + " seconds for reset" );
+            Thread.sleep( delay );
+        }
+    }
+
+    /**
+     * Reports requests made by the current thread during the operation, counted from responses without extra requests
+     */
     public static class Reporter implements AutoCloseable {
-        private final GitHubRepository repo;
         private final String methodName;
-        private final GHRateLimit startRateLimit;
+        private final RequestStats.Snapshot start;
 
         public Reporter(GitHubRepository repo, String methodName)
         {
-            this.repo = repo;
             this.methodName = methodName;
-            startRateLimit = repo.getGhRateLimitQuietly();
+            start = RequestStats.snapshot();
         }
 
         @Override
         public void close() {
-            GHRateLimit endRateLimit = repo.getGhRateLimitQuietly();
-            repo.reportOnRateLimit(methodName, startRateLimit, endRateLimit);
+            RequestStats.report(methodName, start);
         }
     }
 }
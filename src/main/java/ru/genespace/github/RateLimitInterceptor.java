@@ -0,0 +1,34 @@
+package ru.genespace.github;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Network interceptor which accounts every response received from GitHub and its X-RateLimit-Remaining header in
+ * {@link RequestStats}, responses served from the cache do not reach it.
+ */
+public class RateLimitInterceptor implements Interceptor
+{
+    @Override
+    public Response intercept(Chain chain) throws IOException
+    {
+        Response response = chain.proceed( chain.request() );
+        String remaining = response.header( "X-RateLimit-Remaining" );
+        int remainingValue = -1;
+        if( remaining != null )
+        {
+            try
+            {
+                remainingValue = Integer.parseInt( remaining.trim() );
+            }
+            catch (NumberFormatException e)
+            {
+                // keep unknown
+            }
+        }
+        RequestStats.networkResponse( remainingValue );
+        return response;
+    }
+}
@@ -0,0 +1,218 @@
+package ru.genespace.github;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * In-memory file tree of one repository reference, read from the tarball GitHub produces for it.
+ * Serves file reads and directory listings of a version without further requests.
+ * Paths are relative to the repository root, leading slash is ignored.
+ */
+public class RepositoryArchive
+{
+    private static final int MAX_SYMLINK_DEPTH = 10;
+    /**
+     * Result of a symbolic link pointing outside of the repository, never equal to a normalized path
+     */
+    private static final String OUTSIDE_REPOSITORY = "../";
+
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final Map<String, String> symlinks = new HashMap<>();
+    private final Map<String, Set<String>> directories = new HashMap<>();
+    private long size;
+
+    private RepositoryArchive()
+    {
+        directories.put( "", new TreeSet<>() );
+    }
+
+    /**
+     * Thrown when the files of the archive exceed the size limit, reading it again gives the same result
+     */
+    public static class TooLargeException extends IOException
+    {
+        public TooLargeException(String message)
+        {
+            super( message );
+        }
+    }
+
+    /**
+     * Reads gzipped tarball as returned by GitHub, all entries are under a single top level directory.
+     *
+     * @param tarGz archive stream
+     * @param maxBytes limit of total uncompressed size of files
+     * @throws IOException if the archive can not be read or exceeds maxBytes
+     */
+    public static RepositoryArchive read(InputStream tarGz, long maxBytes) throws IOException
+    {
+        RepositoryArchive archive = new RepositoryArchive();
+        long totalBytes = 0;
+        try (TarArchiveInputStream tar = new TarArchiveInputStream( new GZIPInputStream( tarGz ) ))
+        {
+            TarArchiveEntry entry;
+            while( (entry = tar.getNextEntry()) != null )
+            {
+                if( entry.isGlobalPaxHeader() )
+                    continue;
+                // strip "owner-repo-sha/" prefix
+                String path = StringUtils.substringAfter( StringUtils.removeEnd( entry.getName(), "/" ), "/" );
+                if( path.isEmpty() )
+                    continue;
+                if( entry.isDirectory() )
+                {
+                    archive.addDirectory( path );
+                }
+                else if( entry.isSymbolicLink() )
+                {
+                    archive.addEntry( path );
+                    archive.symlinks.put( path, entry.getLinkName() );
+                }
+                else if( entry.isFile() )
+                {
+                    archive.addEntry( path );
+                    if( entry.getSize() > GitHubRepository.MAXIMUM_FILE_DOWNLOAD_SIZE )
+                    {
+                        archive.files.put( path, GitHubRepository.FILE_TOO_LARGE_CONTENT.getBytes( StandardCharsets.UTF_8 ) );
+                        continue;
+                    }
+                    totalBytes += entry.getSize();
+                    if( totalBytes > maxBytes )
+                    {
+                        throw new TooLargeException( "Repository archive exceeds " + maxBytes + " bytes" );
+                    }
+                    archive.files.put( path, tar.readAllBytes() );
+                }
+            }
+        }
+        archive.size = totalBytes;
+        return archive;
+    }
+
+    /**
+     * @return total size of file contents in bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    private void addEntry(String path)
+    {
+        String parent = getParent( path );
+        addDirectory( parent );
+        directories.get( parent ).add( FilenameUtils.getName( path ) );
+    }
+
+    private void addDirectory(String path)
+    {
+        if( directories.containsKey( path ) )
+            return;
+        directories.put( path, new TreeSet<>() );
+        if( !path.isEmpty() )
+            addEntry( path );
+    }
+
+    private static String getParent(String path)
+    {
+        return path.contains( "/" ) ? StringUtils.substringBeforeLast( path, "/" ) : "";
+    }
+
+    private String resolve(String path)
+    {
+        String resolved = StringUtils.strip( path, "/" );
+        for ( int depth = 0; depth < MAX_SYMLINK_DEPTH; depth++ )
+        {
+            String linked = resolveFirstSymlink( resolved );
+            if( linked == null )
+                return resolved;
+            if( linked.equals( OUTSIDE_REPOSITORY ) )
+                return null;
+            resolved = linked;
+        }
+        return null;
+    }
+
+    // replaces the first symbolic link on the path with its target, returns null when there is none
+    // and OUTSIDE_REPOSITORY when the target is outside of the repository root
+    private String resolveFirstSymlink(String path)
+    {
+        String[] parts = path.split( "/" );
+        List<String> prefix = new ArrayList<>();
+        for ( int i = 0; i < parts.length; i++ )
+        {
+            prefix.add( parts[i] );
+            String current = String.join( "/", prefix );
+            String target = symlinks.get( current );
+            if( target != null )
+            {
+                String base = target.startsWith( "/" ) ? target : getParent( current ) + "/" + target;
+                StringBuilder rest = new StringBuilder();
+                for ( int j = i + 1; j < parts.length; j++ )
+                    rest.append( '/' ).append( parts[j] );
+                String normalized = FilenameUtils.normalize( base + rest, true );
+                return normalized == null ? OUTSIDE_REPOSITORY : StringUtils.strip( normalized, "/" );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return content of the file as UTF-8 string or null if there is no such file
+     */
+    public String readFile(String path)
+    {
+        String resolved = resolve( path );
+        if( resolved == null )
+            return null;
+        byte[] data = files.get( resolved );
+        return data == null ? null : new String( data, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return names of entries in the directory or null if there is no such directory
+     */
+    public List<String> listFiles(String path)
+    {
+        String resolved = resolve( path );
+        if( resolved == null )
+            return null;
+        Set<String> names = directories.get( resolved );
+        return names == null ? null : List.copyOf( names );
+    }
+
+    /**
+     * Submodules are not included in the archive, they are represented by empty directories.
+     *
+     * @return true if the path goes through an empty directory, so the file can still be found in a submodule
+     */
+    public boolean mayBeSubmodule(String path)
+    {
+        String resolved = resolve( path );
+        if( resolved == null )
+            return false;
+        String parent = getParent( resolved );
+        while( true )
+        {
+            Set<String> names = directories.get( parent );
+            if( names != null )
+                return names.isEmpty() && !parent.isEmpty();
+            if( parent.isEmpty() )
+                return false;
+            parent = getParent( parent );
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ru.genespace.github;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.github.GHTree;
+import org.kohsuke.github.GHTreeEntry;
+
+/**
+ * Path index of one repository reference, filled by a single recursive Git Trees API call.
+ * Resolves symbolic links and lists directories without further requests, only the targets of
+ * symbolic links are read as blobs when they are met.
+ * Paths are relative to the repository root, leading slash is ignored.
+ */
+public class RepositoryTree
+{
+    private static final int MAX_SYMLINK_DEPTH = 10;
+    private static final String SYMLINK_MODE = "120000";
+
+    /**
+     * Reads content of a blob by its sha, used for targets of symbolic links
+     */
+    @FunctionalInterface
+    public interface BlobReader
+    {
+        String read(String sha) throws IOException;
+    }
+
+    /**
+     * @param type blob, tree or commit (submodule)
+     */
+    public record Entry(String path, String type, String mode, String sha, long size)
+    {
+        public boolean isDirectory()
+        {
+            return "tree".equals( type );
+        }
+
+        public boolean isSubmodule()
+        {
+            return "commit".equals( type );
+        }
+
+        public boolean isSymlink()
+        {
+            return SYMLINK_MODE.equals( mode );
+        }
+    }
+
+    private static final Entry ROOT = new Entry( "", "tree", null, null, 0 );
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Set<String>> directories = new HashMap<>();
+
+    private RepositoryTree()
+    {
+        entries.put( "", ROOT );
+        directories.put( "", new TreeSet<>() );
+    }
+
+    /**
+     * @param tree recursive tree of the reference
+     * @return index or null if GitHub truncated the tree, in which case it is incomplete
+     */
+    public static RepositoryTree of(GHTree tree)
+    {
+        if( tree.isTruncated() )
+            return null;
+        RepositoryTree index = new RepositoryTree();
+        for ( GHTreeEntry treeEntry : tree.getTree() )
+        {
+            Entry entry = new Entry( treeEntry.getPath(), treeEntry.getType(), treeEntry.getMode(), treeEntry.getSha(), treeEntry.getSize() );
+            index.entries.put( entry.path(), entry );
+            if( entry.isDirectory() )
+                index.directories.computeIfAbsent( entry.path(), path -> new TreeSet<>() );
+            index.directories.computeIfAbsent( getParent( entry.path() ), path -> new TreeSet<>() ).add( FilenameUtils.getName( entry.path() ) );
+        }
+        return index;
+    }
+
+    private static String getParent(String path)
+    {
+        return path.contains( "/" ) ? StringUtils.substringBeforeLast( path, "/" ) : "";
+    }
+
+    /**
+     * Follows symbolic links on the path. Resolution stops at a submodule, as its content is not part of the tree.
+     *
+     * @return entry of the file or directory, submodule entry if the path goes through a submodule, or null if there
+     *         is no such path
+     */
+    public Entry resolve(String path, BlobReader blobReader) throws IOException
+    {
+        String current = StringUtils.strip( path, "/" );
+        for ( int depth = 0; depth < MAX_SYMLINK_DEPTH; depth++ )
+        {
+            if( current.isEmpty() )
+                return ROOT;
+            String[] parts = current.split( "/" );
+            List<String> prefix = new ArrayList<>();
+            String linked = null;
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                prefix.add( parts[i] );
+                String partialPath = String.join( "/", prefix );
+                Entry entry = entries.get( partialPath );
+                if( entry == null )
+                    return null;
+                if( entry.isSubmodule() )
+                    return entry;
+                if( entry.isSymlink() )
+                {
+                    String target = blobReader.read( entry.sha() );
+                    String base = target.startsWith( "/" ) ? target : getParent( partialPath ) + "/" + target;
+                    StringBuilder rest = new StringBuilder();
+                    for ( int j = i + 1; j < parts.length; j++ )
+                        rest.append( '/' ).append( parts[j] );
+                    String normalized = FilenameUtils.normalize( base + rest, true );
+                    if( normalized == null )
+                        return null;
+                    linked = StringUtils.strip( normalized, "/" );
+                    break;
+                }
+                if( i == parts.length - 1 )
+                    return entry;
+            }
+            current = linked;
+        }
+        return null;
+    }
+
+    /**
+     * @return names of entries in the directory or null if the entry is not a directory
+     */
+    public List<String> listFiles(Entry directory)
+    {
+        Set<String> names = directory.isDirectory() ? directories.get( directory.path() ) : null;
+        return names == null ? null : List.copyOf( names );
+    }
+}
@@ -0,0 +1,78 @@
+package ru.genespace.github;
+
+/**
+ * Counts GitHub requests of the current thread from OkHttp events, so that operations can report their cost without
+ * asking GitHub for the rate limit. Filled by {@link RateLimitInterceptor} and {@link CacheHitListener}, both run in the
+ * calling thread for synchronous requests.
+ */
+public final class RequestStats
+{
+    private static final ThreadLocal<RequestStats> CURRENT = ThreadLocal.withInitial( RequestStats::new );
+
+    private long networkRequests;
+    private long conditionalHits;
+    private long cacheHits;
+    private int remaining = -1;
+
+    private RequestStats()
+    {
+    }
+
+    /**
+     * @param networkRequests responses received from GitHub
+     * @param conditionalHits responses revalidated with 304, they do not count against the quota
+     * @param cacheHits responses served from the disk cache without a request
+     * @param remaining core quota from X-RateLimit-Remaining of the last response, -1 if unknown
+     */
+    public record Snapshot(long networkRequests, long conditionalHits, long cacheHits, int remaining)
+    {
+        public Snapshot since(Snapshot start)
+        {
+            return new Snapshot( networkRequests - start.networkRequests, conditionalHits - start.conditionalHits, cacheHits - start.cacheHits,
+                    remaining );
+        }
+    }
+
+    public static Snapshot snapshot()
+    {
+        RequestStats stats = CURRENT.get();
+        return new Snapshot( stats.networkRequests, stats.conditionalHits, stats.cacheHits, stats.remaining );
+    }
+
+    /**
+     * Logs requests made by the current thread since start
+     */
+    public static void report(String id, Snapshot start)
+    {
+        if( !GitHubRepository.LOG.isDebugEnabled() )
+            return;
+        Snapshot used = snapshot().since( start );
+        long charged = used.networkRequests() - used.conditionalHits();
+        if( charged > 0 )
+        {
+            GitHubRepository.LOG.debug( id + ": used up " + charged + " GitHub rate limited requests, " + used.remaining() + " left" );
+        }
+        else
+        {
+            GitHubRepository.LOG.debug( id + ": was served entirely from cache (" + used.cacheHits() + " cached, " + used.conditionalHits() + " revalidated)" );
+        }
+    }
+
+    static void networkResponse(int remainingHeader)
+    {
+        RequestStats stats = CURRENT.get();
+        stats.networkRequests++;
+        if( remainingHeader >= 0 )
+            stats.remaining = remainingHeader;
+    }
+
+    static void conditionalHit()
+    {
+        CURRENT.get().conditionalHits++;
+    }
+
+    static void cacheHit()
+    {
+        CURRENT.get().cacheHits++;
+    }
+}
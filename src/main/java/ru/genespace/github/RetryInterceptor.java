@@ -0,0 +1,73 @@
+package ru.genespace.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Repeats idempotent GET and HEAD requests failed with I/O error or 502, 503, 504, waiting with exponential backoff and
+ * full jitter, so that parallel ingestion threads do not retry in lockstep. Rate limit responses are not retried here,
+ * they are handled by the GitHub client.
+ */
+public class RetryInterceptor implements Interceptor
+{
+    static final long BASE_DELAY_MS = 500;
+    static final long MAX_DELAY_MS = 8_000;
+
+    private final int maxRetries;
+
+    public RetryInterceptor(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException
+    {
+        Request request = chain.request();
+        boolean idempotent = request.method().equals( "GET" ) || request.method().equals( "HEAD" );
+        for ( int attempt = 0;; attempt++ )
+        {
+            boolean lastAttempt = !idempotent || attempt >= maxRetries;
+            Response response;
+            try
+            {
+                response = chain.proceed( request );
+            }
+            catch (IOException e)
+            {
+                // interrupted thread stops at once, timeouts are repeated as other I/O errors
+                if( lastAttempt || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) )
+                    throw e;
+                GitHubRepository.LOG.debug( "Retrying " + request.url() + " after " + e.getMessage() );
+                sleep( attempt );
+                continue;
+            }
+            int code = response.code();
+            if( lastAttempt || (code != 502 && code != 503 && code != 504) )
+                return response;
+            GitHubRepository.LOG.debug( "Retrying " + request.url() + " after HTTP " + code );
+            response.close();
+            sleep( attempt );
+        }
+    }
+
+    private static void sleep(int attempt) throws IOException
+    {
+        long bound = Math.min( MAX_DELAY_MS, BASE_DELAY_MS << attempt );
+        try
+        {
+            Thread.sleep( ThreadLocalRandom.current().nextLong( bound + 1 ) );
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting to retry" );
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.genespace.importer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import jobs running in this process. A cancelled job is interrupted while it reads from GitHub or waits for quota,
+ * but not while its results are stored, so the store transaction is either completed or not started at all.
+ */
+class ActiveImportJobs
+{
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+
+    static final class Job
+    {
+        private final long jobId;
+        private final long repositoryId;
+        private final CountDownLatch finished = new CountDownLatch( 1 );
+        private volatile boolean cancelled;
+        // guarded by this
+        private Thread worker;
+        private boolean storing;
+
+        private Job(long jobId, long repositoryId)
+        {
+            this.jobId = jobId;
+            this.repositoryId = repositoryId;
+        }
+
+        long getJobId()
+        {
+            return jobId;
+        }
+
+        long getRepositoryId()
+        {
+            return repositoryId;
+        }
+
+        boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * @return false if the job is already storing its results and will complete
+         */
+        synchronized boolean cancel()
+        {
+            if( storing )
+                return false;
+            cancelled = true;
+            if( worker != null )
+                worker.interrupt();
+            return true;
+        }
+
+        /**
+         * Binds the job to the current thread, so that cancelling interrupts it
+         */
+        synchronized void start()
+        {
+            if( cancelled )
+                throw new CancellationException();
+            worker = Thread.currentThread();
+        }
+
+        /**
+         * Called before results are stored, the job can not be cancelled after that
+         *
+         * @throws CancellationException if the job is already cancelled
+         */
+        synchronized void beginStoring()
+        {
+            if( cancelled )
+                throw new CancellationException();
+            storing = true;
+            // an interrupt requested before could break the store transaction
+            Thread.interrupted();
+        }
+
+        private void finish()
+        {
+            synchronized( this )
+            {
+                worker = null;
+            }
+            finished.countDown();
+        }
+
+        /**
+         * @return false if the job is still running after the timeout
+         */
+        boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return finished.await( timeout, unit );
+        }
+    }
+
+    Job add(long jobId, long repositoryId)
+    {
+        Job job = new Job( jobId, repositoryId );
+        jobs.put( jobId, job );
+        return job;
+    }
+
+    /**
+     * Removes the job and wakes up threads waiting for it to finish
+     */
+    void remove(Job job)
+    {
+        jobs.remove( job.getJobId(), job );
+        job.finish();
+    }
+
+    int size()
+    {
+        return jobs.size();
+    }
+
+    /**
+     * @return false if there is no such job or it can not be cancelled anymore
+     */
+    boolean cancel(long jobId)
+    {
+        Job job = jobs.get( jobId );
+        if( job == null )
+            return false;
+        return job.cancel();
+    }
+
+    List<Job> getRepositoryJobs(long repositoryId)
+    {
+        return jobs.values().stream().filter( job -> job.getRepositoryId() == repositoryId ).toList();
+    }
+
+    List<Job> getJobs()
+    {
+        return List.copyOf( jobs.values() );
+    }
+}
@@ -0,0 +1,13 @@
+package ru.genespace.importer;
+
+import com.google.inject.AbstractModule;
+
+public class ImporterModule extends AbstractModule
+{
+    @Override
+    protected void configure()
+    {
+        // started by AppGuiceServletConfig, so that queued jobs are resumed on startup
+        bind( RepositoryImportService.class ).asEagerSingleton();
+    }
+}
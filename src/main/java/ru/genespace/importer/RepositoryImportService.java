@@ -0,0 +1,329 @@
+package ru.genespace.importer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.developmentontheedge.be5.database.DbService;
+import com.developmentontheedge.be5.database.QRec;
+
+import ru.genespace.dockstore.Workflow;
+import ru.genespace.github.GitHubClientRegistry;
+import ru.genespace.github.GitHubManager;
+import ru.genespace.github.GitHubManager.RefreshResult;
+import ru.genespace.github.GitHubRepository;
+import ru.genespace.github.IngestionListener;
+import ru.genespace.github.RateLimitHelper;
+import ru.genespace.webserver.DagRenderService;
+
+/**
+ * Runs repository imports and refreshes in background worker threads. The queue is importJobs table: the dispatcher picks queued
+ * jobs when a worker is free, on submit and periodically, so jobs queued in a transaction that was not committed yet
+ * and jobs left queued before restart are run as well. Jobs interrupted by restart while running are marked as failed.
+ * Worker threads are started by {@link #start()} when the application is initialized.
+ */
+@Singleton
+public class RepositoryImportService
+{
+    private static final Logger LOG = LoggerFactory.getLogger( RepositoryImportService.class );
+
+    public static final int DEFAULT_IMPORT_WORKERS = 2;
+    private static final int POLL_INTERVAL_SECONDS = 5;
+    private static final int STOP_WAIT_SECONDS = 30;
+
+    private final DbService db;
+    private final RepositoryStore store;
+    private final DagRenderService dagRenderService;
+    private final GitHubClientRegistry gitHubClients;
+    private final int workerCount;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService dispatcher;
+    private final ActiveImportJobs activeJobs = new ActiveImportJobs();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    @Inject
+    public RepositoryImportService(DbService db, DagRenderService dagRenderService, GitHubClientRegistry gitHubClients)
+    {
+        this.db = db;
+        this.dagRenderService = dagRenderService;
+        this.gitHubClients = gitHubClients;
+        this.store = new RepositoryStore( db );
+        String workersSetting = getSetting( "import_workers" );
+        workerCount = workersSetting != null ? Math.max( 1, Integer.parseInt( workersSetting ) ) : DEFAULT_IMPORT_WORKERS;
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool( workerCount, runnable -> {
+            Thread thread = new Thread( runnable, "repository-import-" + threadNumber.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        dispatcher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "repository-import-dispatcher" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Marks jobs interrupted by restart as failed and starts running queued jobs
+     */
+    public void start()
+    {
+        if( !started.compareAndSet( false, true ) )
+            return;
+        db.update( "UPDATE importJobs SET status='failed', message='Interrupted by server restart', endDate=CURRENT_TIMESTAMP WHERE status='running'" );
+        dispatcher.scheduleWithFixedDelay( this::dispatch, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Stops dispatching and cancels running jobs, jobs storing their results are let finish
+     */
+    public void stop()
+    {
+        dispatcher.shutdownNow();
+        activeJobs.getJobs().forEach( ActiveImportJobs.Job::cancel );
+        workers.shutdown();
+        try
+        {
+            if( !workers.awaitTermination( STOP_WAIT_SECONDS, TimeUnit.SECONDS ) )
+                LOG.warn( "Repository import jobs are still running after " + STOP_WAIT_SECONDS + " seconds" );
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public enum JobType
+    {
+        /**
+         * Reads all branches and tags of a new repository
+         */
+        IMPORT,
+        /**
+         * Re-reads only branches and tags whose commit changed, removes vanished ones
+         */
+        REFRESH
+    }
+
+    /**
+     * Puts import of the repository into the queue
+     *
+     * @param repositoryId repositories.ID
+     * @return importJobs.ID
+     */
+    public long submit(long repositoryId)
+    {
+        return submit( repositoryId, JobType.IMPORT );
+    }
+
+    /**
+     * @param repositoryId repositories.ID
+     * @return importJobs.ID
+     */
+    public long submit(long repositoryId, JobType type)
+    {
+        long jobId = db.insert( "INSERT INTO importJobs (repository, type, status) VALUES (?, ?, 'queued')", repositoryId, type.name().toLowerCase() );
+        if( started.get() && !dispatcher.isShutdown() )
+            dispatcher.execute( this::dispatch );
+        return jobId;
+    }
+
+    /**
+     * Cancels queued or running job. Running job stops at the next GitHub request, nothing is stored. A job which is
+     * already storing its results completes.
+     *
+     * @return false if the job is neither queued nor running
+     */
+    public boolean cancel(long jobId)
+    {
+        if( db.update( "UPDATE importJobs SET status='cancelled', endDate=CURRENT_TIMESTAMP WHERE ID=? AND status='queued'", jobId ) > 0 )
+            return true;
+        return activeJobs.cancel( jobId );
+    }
+
+    /**
+     * Cancels all jobs of the repository and waits until running ones are finished, so that the repository can be
+     * removed without a job writing its rows concurrently
+     *
+     * @return false if some job is still running after the timeout
+     */
+    public boolean cancelRepositoryJobs(long repositoryId, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        db.update( "UPDATE importJobs SET status='cancelled', endDate=CURRENT_TIMESTAMP WHERE repository=? AND status='queued'", repositoryId );
+        List<ActiveImportJobs.Job> running = activeJobs.getRepositoryJobs( repositoryId );
+        running.forEach( ActiveImportJobs.Job::cancel );
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+        for ( ActiveImportJobs.Job job : running )
+        {
+            if( !job.awaitFinished( deadline - System.nanoTime(), TimeUnit.NANOSECONDS ) )
+                return false;
+        }
+        return true;
+    }
+
+    // runs in the dispatcher thread only
+    private void dispatch()
+    {
+        try
+        {
+            int free = workerCount - activeJobs.size();
+            if( free <= 0 )
+                return;
+            for ( QRec row : db.list( "SELECT ID AS \"ID\", repository AS \"repository\" FROM importJobs WHERE status='queued' ORDER BY ID LIMIT ?", free ) )
+            {
+                // registered before the claim, so that cancelRepositoryJobs either cancels the queued job or waits for it
+                ActiveImportJobs.Job job = activeJobs.add( row.getLong( "ID" ), row.getLong( "repository" ) );
+                // claim the job, it could be cancelled in the meantime
+                if( db.update( "UPDATE importJobs SET status='running', startDate=CURRENT_TIMESTAMP WHERE ID=? AND status='queued'", job.getJobId() ) == 0 )
+                {
+                    activeJobs.remove( job );
+                    continue;
+                }
+                if( workers.isShutdown() )
+                {
+                    // stopped in the meantime, the job is run after restart
+                    db.update( "UPDATE importJobs SET status='queued', startDate=NULL WHERE ID=?", job.getJobId() );
+                    activeJobs.remove( job );
+                    return;
+                }
+                workers.execute( () -> {
+                    try
+                    {
+                        // jobs wait for GitHub quota instead of failing
+                        RateLimitHelper.setBackground( true );
+                        run( job );
+                    }
+                    finally
+                    {
+                        // interrupt of a cancelled job must not affect the next one
+                        Thread.interrupted();
+                        activeJobs.remove( job );
+                        if( !dispatcher.isShutdown() )
+                            dispatcher.execute( this::dispatch );
+                    }
+                } );
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // an exception would stop periodic dispatching
+            LOG.error( "Could not dispatch repository import jobs", e );
+        }
+    }
+
+    private void run(ActiveImportJobs.Job activeJob)
+    {
+        long jobId = activeJob.getJobId();
+        QRec job = db.recordWithParams( "SELECT j.repository AS \"repository\", j.type AS \"type\", r.url AS \"url\" FROM importJobs j"
+                + " JOIN repositories r ON r.ID = j.repository WHERE j.ID=?", jobId );
+        if( job == null || job.isEmpty() )
+            return;
+        long repositoryId = job.getLong( "repository" );
+        String url = job.getString( "url" );
+        JobType type = JobType.valueOf( job.getString( "type" ).toUpperCase() );
+        try
+        {
+            activeJob.start();
+            GitHubManager gitHubManager = createGitHubManager();
+            gitHubManager.setListener( new JobProgress( activeJob ) );
+            if( type == JobType.REFRESH )
+            {
+                Map<String, String> knownCommits = new HashMap<>();
+                for ( QRec version : db.list( "SELECT name AS \"name\", commit AS \"commit\" FROM versions WHERE repository=?", repositoryId ) )
+                    knownCommits.put( version.getString( "name" ), version.getString( "commit" ) );
+                RefreshResult result = gitHubManager.refreshRepository( url, knownCommits );
+                activeJob.beginStoring();
+                LOG.info( "Refresh of " + url + ": " + result.changedReferences().size() + " changed, " + result.removedReferences().size() + " removed references" );
+                store.refresh( repositoryId, result );
+            }
+            else
+            {
+                Map<String, Workflow> workflows = gitHubManager.processRepository( url );
+                activeJob.beginStoring();
+                store.save( repositoryId, workflows );
+            }
+            db.update( "UPDATE importJobs SET status='finished', endDate=CURRENT_TIMESTAMP WHERE ID=?", jobId );
+            // diagrams are ready before users open new versions
+            dagRenderService.renderRepository( repositoryId );
+        }
+        catch (CancellationException e)
+        {
+            LOG.info( type + " of " + url + " was cancelled" );
+            db.update( "UPDATE importJobs SET status='cancelled', endDate=CURRENT_TIMESTAMP WHERE ID=?", jobId );
+        }
+        catch (Exception e)
+        {
+            if( activeJob.isCancelled() )
+            {
+                // interrupted reads of a cancelled job fail in various ways
+                LOG.info( type + " of " + url + " was cancelled: " + e.getMessage() );
+                db.update( "UPDATE importJobs SET status='cancelled', endDate=CURRENT_TIMESTAMP WHERE ID=?", jobId );
+                return;
+            }
+            LOG.error( type + " of " + url + " failed", e );
+            db.update( "UPDATE importJobs SET status='failed', message=?, endDate=CURRENT_TIMESTAMP WHERE ID=?", String.valueOf( e.getMessage() ), jobId );
+        }
+    }
+
+    private GitHubManager createGitHubManager() throws InterruptedException
+    {
+        // a job waits for GitHub quota instead of failing when all tokens are exhausted
+        GitHubManager gitHubManager = gitHubClients.createManagerWhenAvailable();
+        String ingestionThreads = getSetting( "ingestion_threads" );
+        if( ingestionThreads != null )
+            gitHubManager.setIngestionThreads( Integer.parseInt( ingestionThreads ) );
+        String fetchMode = getSetting( "github_fetch_mode" );
+        if( fetchMode != null )
+            gitHubManager.setFetchMode( GitHubRepository.FetchMode.valueOf( fetchMode.toUpperCase() ) );
+        return gitHubManager;
+    }
+
+    private String getSetting(String name)
+    {
+        return db.getString( "SELECT setting_value FROM systemsettings WHERE section_name='registry' AND setting_name=?", name );
+    }
+
+    /**
+     * Stores progress of the job per reference
+     */
+    private class JobProgress implements IngestionListener
+    {
+        private final ActiveImportJobs.Job job;
+
+        JobProgress(ActiveImportJobs.Job job)
+        {
+            this.job = job;
+        }
+
+        @Override
+        public void referencesFound(int total)
+        {
+            db.update( "UPDATE importJobs SET referencesTotal=? WHERE ID=?", total, job.getJobId() );
+        }
+
+        @Override
+        public void referenceProcessed(String reference)
+        {
+            db.update( "UPDATE importJobs SET referencesDone=referencesDone+1, currentReference=? WHERE ID=?", reference, job.getJobId() );
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return job.isCancelled();
+        }
+    }
+}
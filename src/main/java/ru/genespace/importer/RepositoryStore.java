@@ -0,0 +1,402 @@
+package ru.genespace.importer;
+
+import static ru.genespace.dockstore.Constants.DOCKSTORE_YML_PATHS_SET;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.developmentontheedge.be5.database.DbService;
+
+import ru.genespace.content.CachedContentManager;
+import ru.genespace.content.GitBlobSha;
+import ru.genespace.dockstore.DescriptorLanguage;
+import ru.genespace.dockstore.Image;
+import ru.genespace.dockstore.SourceFile;
+import ru.genespace.dockstore.Validation;
+import ru.genespace.dockstore.Workflow;
+import ru.genespace.dockstore.WorkflowVersion;
+import ru.genespace.github.GitHubManager.RefreshResult;
+
+/**
+ * Writes workflows read by GitHubManager into resources, versions, resource2versions, docker, resource2docker and
+ * attachments of one repository. All rows are written in a single transaction with JDBC batches.
+ */
+public class RepositoryStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger( RepositoryStore.class );
+
+    private static final int MAX_TOPIC_LENGTH = 200;
+
+    private final DbService db;
+
+    public RepositoryStore(DbService db)
+    {
+        this.db = db;
+    }
+
+    public void save(long repositoryId, Map<String, Workflow> workflows)
+    {
+        inTransaction( conn -> {
+            saveWorkflows( conn, repositoryId, workflows.values(), false );
+        } );
+    }
+
+    /**
+     * Replaces versions of changed branches and tags, removes versions of vanished ones and resources left without
+     * versions. Versions of other references are kept as they are.
+     */
+    public void refresh(long repositoryId, RefreshResult result)
+    {
+        inTransaction( conn -> {
+            Set<String> outdated = new HashSet<>( result.changedReferences() );
+            outdated.addAll( result.removedReferences() );
+            for ( String name : outdated )
+            {
+                removeVersions( conn, repositoryId, name );
+            }
+            removeResourcesWithoutVersions( conn, repositoryId );
+            saveWorkflows( conn, repositoryId, result.workflows().values(), true );
+            // the default version could be removed, use the latest one instead
+            update( conn, "UPDATE resource2versions SET defaultVersion='yes' WHERE ID IN (SELECT DISTINCT ON (r2v.resource) r2v.ID FROM resource2versions r2v"
+                    + " JOIN versions v ON v.ID = r2v.version JOIN resources r ON r.ID = r2v.resource WHERE r.repository=?"
+                    + " AND NOT EXISTS (SELECT 1 FROM resource2versions d WHERE d.resource = r2v.resource AND d.defaultVersion='yes')"
+                    + " ORDER BY r2v.resource, v.dateModified DESC)", repositoryId );
+            CachedContentManager.removeUnusedBlobs( conn );
+        } );
+    }
+
+    private void removeVersions(Connection conn, long repositoryId, String name) throws SQLException
+    {
+        String versionIds = "SELECT ID FROM versions WHERE repository=? AND name=?";
+        update( conn, "DELETE FROM attachments WHERE ownerType='resource2versions' AND ownerID IN (SELECT ID FROM resource2versions WHERE version IN (" + versionIds
+                + "))", repositoryId, name );
+        update( conn, "DELETE FROM attachments WHERE ownerType='versions' AND ownerID IN (" + versionIds + ")", repositoryId, name );
+        update( conn, "DELETE FROM resource2docker WHERE version IN (" + versionIds + ")", repositoryId, name );
+        update( conn, "DELETE FROM resource2versions WHERE version IN (" + versionIds + ")", repositoryId, name );
+        update( conn, "DELETE FROM versions WHERE repository=? AND name=?", repositoryId, name );
+    }
+
+    private void removeResourcesWithoutVersions(Connection conn, long repositoryId) throws SQLException
+    {
+        String resourceIds = "SELECT r.ID FROM resources r WHERE r.repository=? AND NOT EXISTS (SELECT 1 FROM resource2versions r2v WHERE r2v.resource = r.ID)";
+        update( conn, "DELETE FROM attachments WHERE ownerType='resources' AND ownerID IN (" + resourceIds + ")", repositoryId );
+        update( conn, "DELETE FROM resource2docker WHERE resource IN (" + resourceIds + ")", repositoryId );
+        update( conn, "DELETE FROM resources WHERE ID IN (" + resourceIds + ")", repositoryId );
+    }
+
+    private void inTransaction(SqlAction action)
+    {
+        db.execute( conn -> {
+            boolean oldAC = conn.getAutoCommit();
+            conn.setAutoCommit( false );
+            try
+            {
+                action.run( conn );
+                conn.commit();
+                return true;
+            }
+            catch (SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+            finally
+            {
+                conn.setAutoCommit( oldAC );
+            }
+        } );
+    }
+
+    /**
+     * Stages rows of all workflows and writes each table with one JDBC batch. Existing versions, docker images and
+     * links are detected by unique indexes (ON CONFLICT) instead of a lookup per row.
+     *
+     * @param refresh reuse resources with the same name and keep their default versions
+     */
+    private void saveWorkflows(Connection conn, long repositoryId, Collection<Workflow> workflows, boolean refresh) throws SQLException
+    {
+        List<Workflow> workflowList = new ArrayList<>( workflows );
+        Map<String, Long> existingResources = new HashMap<>();
+        Set<Long> resourcesWithDefault = new HashSet<>();
+        if( refresh )
+        {
+            forEachRow( conn, "SELECT name, ID FROM resources WHERE repository=?", rs -> existingResources.put( rs.getString( 1 ), rs.getLong( 2 ) ), repositoryId );
+            forEachRow( conn, "SELECT DISTINCT r2v.resource FROM resource2versions r2v JOIN resources r ON r.ID = r2v.resource"
+                    + " WHERE r.repository=? AND r2v.defaultVersion='yes'", rs -> resourcesWithDefault.add( rs.getLong( 1 ) ), repositoryId );
+        }
+
+        // resources
+        Long[] resourceIds = new Long[workflowList.size()];
+        List<Integer> newResources = new ArrayList<>();
+        List<Object[]> resourceRows = new ArrayList<>();
+        for ( int i = 0; i < workflowList.size(); i++ )
+        {
+            Workflow workflow = workflowList.get( i );
+            String wflName = getResourceName( workflow );
+            resourceIds[i] = existingResources.get( wflName );
+            if( resourceIds[i] == null )
+            {
+                String topic = workflow.getTopic();
+                if( topic != null && topic.length() > MAX_TOPIC_LENGTH )
+                    topic = topic.substring( 0, MAX_TOPIC_LENGTH );
+                //TODO: info
+                newResources.add( i );
+                resourceRows.add( new Object[] { repositoryId, wflName, workflow.getDescriptorType().getShortName(), topic } );
+            }
+        }
+        List<Long> insertedResources = insertBatch( conn, "INSERT INTO resources (repository, name, type, language, topic) VALUES (?,?,'workflow',?,?)",
+                resourceRows );
+        for ( int i = 0; i < newResources.size(); i++ )
+            resourceIds[newResources.get( i )] = insertedResources.get( i );
+
+        // versions, shared by resources of the same branch or tag
+        Map<VersionKey, Object[]> versionRows = new LinkedHashMap<>();
+        for ( Workflow workflow : workflowList )
+        {
+            for ( WorkflowVersion version : workflow.getWorkflowVersions() )
+            {
+                //TODO: doi is not supported now
+                VersionKey key = VersionKey.of( version );
+                versionRows.putIfAbsent( key,
+                        new Object[] { repositoryId, key.name(), key.commit(), new Timestamp( version.getLastModified().getTime() ), key.type() } );
+            }
+        }
+        executeBatch( conn, "INSERT INTO versions (repository, name, commit, dateModified, type) VALUES (?,?,?,?,?)"
+                + " ON CONFLICT (repository, name, commit, type) DO NOTHING", versionRows.values() );
+        Map<VersionKey, Long> versionIds = new HashMap<>();
+        forEachRow( conn, "SELECT name, commit, type, ID FROM versions WHERE repository=?",
+                rs -> versionIds.put( new VersionKey( rs.getString( 1 ), rs.getString( 2 ), rs.getString( 3 ) ), rs.getLong( 4 ) ), repositoryId );
+
+        // resource2versions
+        List<Object[]> res2verRows = new ArrayList<>();
+        List<WorkflowVersion> res2verVersions = new ArrayList<>();
+        List<long[]> res2verOwners = new ArrayList<>();
+        for ( int i = 0; i < workflowList.size(); i++ )
+        {
+            Workflow workflow = workflowList.get( i );
+            long resourceId = resourceIds[i];
+            boolean hasDefaultVersion = resourcesWithDefault.contains( resourceId );
+            for ( WorkflowVersion version : workflow.getWorkflowVersions() )
+            {
+                VersionKey key = VersionKey.of( version );
+                long versionId = versionIds.get( key );
+                if( !version.isValid() )
+                {
+                    LOG.warn( createValidationMessages( version ) );
+                }
+                //TODO: doi, language, snapshot
+                //set first version as default since it is necessary
+                boolean isDefaultVersion = !hasDefaultVersion
+                        && (workflow.getActualDefaultVersion() == null || key.name().equals( workflow.getActualDefaultVersion().getName() ));
+                res2verRows.add( new Object[] { resourceId, versionId, version.isValid() ? "yes" : "no", version.getWorkflowPath(), version.getReadMePath(),
+                        isDefaultVersion ? "yes" : "no" } );
+                res2verVersions.add( version );
+                res2verOwners.add( new long[] { resourceId, versionId } );
+            }
+        }
+        List<Long> res2verIds = insertBatch( conn,
+                "INSERT INTO resource2versions (resource, version, valid, primaryDescriptorPath, readMePath, defaultVersion) VALUES (?,?,?,?,?,?)",
+                res2verRows );
+
+        // docker images and attachments of each resource version
+        Map<String, String> images = new LinkedHashMap<>();
+        // sorted, so that concurrent imports lock shared blobs in the same order
+        Map<String, Object[]> blobRows = new TreeMap<>();
+        List<Object[]> fetchedRows = new ArrayList<>();
+        List<Object[]> unfetchedRows = new ArrayList<>();
+        for ( int i = 0; i < res2verVersions.size(); i++ )
+        {
+            WorkflowVersion version = res2verVersions.get( i );
+            long res2ver = res2verIds.get( i );
+            for ( Image image : version.getImages() )
+            {
+                images.putIfAbsent( image.getImageID(), image.getImageURL() );
+            }
+            String primaryDescriptorPath = version.getWorkflowPath();
+            for ( SourceFile sf : version.getSourceFiles() )
+            {
+                if( DOCKSTORE_YML_PATHS_SET.contains( sf.getPath() ) )
+                    continue;
+                if( sf.getPath().equals( primaryDescriptorPath ) && sf.getContent() != null )
+                {
+                    //content is stored once per Git blob SHA and shared by all versions
+                    byte[] data = sf.getContent().getBytes( StandardCharsets.UTF_8 );
+                    String sha = GitBlobSha.of( data );
+                    blobRows.putIfAbsent( sha, new Object[] { sha, "text/plain", (long) data.length, data } );
+                    fetchedRows.add( new Object[] { res2ver, sf.getAbsolutePath(), "text/plain", sha, "workflow file" } );
+                }
+                else
+                {
+                    String mimeType = sf.getType().equals( DescriptorLanguage.FileType.DOCKERFILE ) ? "application/octet-stream" : "text/plain";
+                    unfetchedRows.add( new Object[] { res2ver, sf.getAbsolutePath(), mimeType, "workflow file" } );
+                }
+            }
+        }
+
+        List<Object[]> imageRows = images.entrySet().stream().map( e -> new Object[] { e.getKey(), e.getValue() } ).toList();
+        executeBatch( conn, "INSERT INTO docker (image, url) VALUES (?,?) ON CONFLICT (image) DO NOTHING", imageRows );
+        Map<String, Long> dockerIds = new HashMap<>();
+        if( !images.isEmpty() )
+        {
+            Array imageArray = conn.createArrayOf( "varchar", images.keySet().toArray() );
+            forEachRow( conn, "SELECT image, ID FROM docker WHERE image = ANY(?)", rs -> dockerIds.put( rs.getString( 1 ), rs.getLong( 2 ) ), imageArray );
+        }
+        Map<List<Long>, Object[]> res2dockerRows = new LinkedHashMap<>();
+        for ( int i = 0; i < res2verVersions.size(); i++ )
+        {
+            long[] owner = res2verOwners.get( i );
+            for ( Image image : res2verVersions.get( i ).getImages() )
+            {
+                long dockerId = dockerIds.get( image.getImageID() );
+                res2dockerRows.putIfAbsent( List.of( dockerId, owner[0], owner[1] ), new Object[] { dockerId, owner[0], owner[1] } );
+            }
+        }
+        executeBatch( conn, "INSERT INTO resource2docker (docker, resource, version) VALUES (?,?,?) ON CONFLICT (resource, version, docker) DO NOTHING",
+                res2dockerRows.values() );
+
+        executeBatch( conn, CachedContentManager.INSERT_BLOB, blobRows.values() );
+        executeBatch( conn, "INSERT INTO attachments (ownerID, ownerType, fileName, mimeType, blobSha, description, isFetched) VALUES (?,'resource2versions',?,?,?,?,'yes')"
+                + " ON CONFLICT (ownerID, ownerType, fileName) DO UPDATE SET mimeType=EXCLUDED.mimeType, blobSha=EXCLUDED.blobSha, data=NULL, isFetched='yes'",
+                fetchedRows );
+        executeBatch( conn, "INSERT INTO attachments (ownerID, ownerType, fileName, mimeType, description, isFetched) VALUES (?,'resource2versions',?,?,?,'no')"
+                + " ON CONFLICT (ownerID, ownerType, fileName) DO NOTHING", unfetchedRows );
+    }
+
+    private static String getResourceName(Workflow workflow)
+    {
+        String wflName = workflow.getWorkflowName();
+        if( wflName == null && workflow.getDescriptorType().equals( DescriptorLanguage.NEXTFLOW ) )
+            return "main.nf";
+        return wflName == null ? "undefined" : wflName;
+    }
+
+    private static List<Long> insertBatch(Connection conn, String sql, List<Object[]> rows) throws SQLException
+    {
+        List<Long> ids = new ArrayList<>( rows.size() );
+        if( rows.isEmpty() )
+            return ids;
+        try (PreparedStatement ps = conn.prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ))
+        {
+            for ( Object[] row : rows )
+            {
+                setParameters( ps, row );
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            try (ResultSet keys = ps.getGeneratedKeys())
+            {
+                while( keys.next() )
+                    ids.add( keys.getLong( "ID" ) );
+            }
+        }
+        return ids;
+    }
+
+    private static void executeBatch(Connection conn, String sql, Collection<Object[]> rows) throws SQLException
+    {
+        if( rows.isEmpty() )
+            return;
+        try (PreparedStatement ps = conn.prepareStatement( sql ))
+        {
+            for ( Object[] row : rows )
+            {
+                setParameters( ps, row );
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void forEachRow(Connection conn, String sql, RowConsumer consumer, Object... params) throws SQLException
+    {
+        try (PreparedStatement ps = conn.prepareStatement( sql ))
+        {
+            setParameters( ps, params );
+            try (ResultSet rs = ps.executeQuery())
+            {
+                while( rs.next() )
+                    consumer.accept( rs );
+            }
+        }
+    }
+
+    private static int update(Connection conn, String sql, Object... params) throws SQLException
+    {
+        try (PreparedStatement ps = conn.prepareStatement( sql ))
+        {
+            setParameters( ps, params );
+            return ps.executeUpdate();
+        }
+    }
+
+    private static void setParameters(PreparedStatement ps, Object... params) throws SQLException
+    {
+        for ( int i = 0; i < params.length; i++ )
+        {
+            ps.setObject( i + 1, params[i] );
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlAction
+    {
+        void run(Connection conn) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer
+    {
+        void accept(ResultSet rs) throws SQLException;
+    }
+
+    private record VersionKey(String name, String commit, String type)
+    {
+        static VersionKey of(WorkflowVersion version)
+        {
+            return new VersionKey( version.getName() != null ? version.getName() : "name is unset", version.getCommitID(), version.getReferenceType().toString() );
+        }
+    }
+
+    /**
+     * Prints out all of the invalid validations
+     */
+    private static String createValidationMessages(WorkflowVersion version)
+    {
+        StringBuilder result = new StringBuilder();
+        result.append( "Version was not validates due to the following error(s): " );
+        for ( Validation versionValidation : version.getValidations() )
+        {
+            if( !versionValidation.isValid() && versionValidation.getMessage() != null )
+            {
+                JSONObject obj = new JSONObject( versionValidation.getMessage() );
+                Iterator<String> keys = obj.keys();
+                while( keys.hasNext() )
+                {
+                    String name = keys.next();
+                    result.append( name ).append( ": " ).append( obj.getString( name ) ).append( " " );
+                }
+            }
+        }
+        return result.toString();
+    }
+}
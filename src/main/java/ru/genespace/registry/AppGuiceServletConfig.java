@@ -1,5 +1,7 @@
 package ru.genespace.registry;
 
+import javax.servlet.ServletContextEvent;
+
 import com.codahale.metrics.jmx.JmxReporter;
 import com.developmentontheedge.be5.modules.core.CoreModule;
 import com.developmentontheedge.be5.modules.core.CoreServletModule;
@@ -11,7 +13,10 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import ru.genespace.github.GitHubCacheWarmUp;
 import ru.genespace.github.GitHubModule;
+import ru.genespace.importer.ImporterModule;
+import ru.genespace.importer.RepositoryImportService;
 import ru.genespace.webserver.WebserverApiModule;
 
 import static com.developmentontheedge.be5.modules.monitoring.Metrics.METRIC_REGISTRY;
@@ -19,10 +24,33 @@ import static com.developmentontheedge.be5.modules.monitoring.Metrics.METRIC_REG
 
 public class AppGuiceServletConfig extends Be5ServletListener
 {
+    private Injector injector;
+
     @Override
     protected Injector getInjector()
     {
-        return Guice.createInjector(getStage(), new AppModule());
+        injector = Guice.createInjector(getStage(), new AppModule());
+        return injector;
+    }
+
+    @Override
+    public void contextInitialized(ServletContextEvent servletContextEvent)
+    {
+        super.contextInitialized(servletContextEvent);
+        // background threads are started once the application is ready, not while Guice creates the services
+        injector.getInstance(RepositoryImportService.class).start();
+        injector.getInstance(GitHubCacheWarmUp.class).start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent)
+    {
+        if (injector != null)
+        {
+            injector.getInstance(GitHubCacheWarmUp.class).stop();
+            injector.getInstance(RepositoryImportService.class).stop();
+        }
+        super.contextDestroyed(servletContextEvent);
     }
 
     private static class AppModule extends AbstractModule
@@ -36,6 +64,7 @@ public class AppGuiceServletConfig extends Be5ServletListener
             install(new TemplateModule());
             install(new MetricsModule());
             install( new GitHubModule() );
+            install( new ImporterModule() );
             install( new WebserverApiModule() );
 
             final JmxReporter jmxReporter = JmxReporter.forRegistry(METRIC_REGISTRY).build();
@@ -0,0 +1,208 @@
+package ru.genespace.webserver;
+
+import java.awt.image.BufferedImage;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.developmentontheedge.be5.database.DbService;
+import com.developmentontheedge.be5.database.QRec;
+
+import biouml.model.Diagram;
+import biouml.model.util.DiagramImageGenerator;
+import biouml.plugins.wdl.diagram.WDLImporter;
+import biouml.plugins.wdl.diagram.WDLLayouter;
+import biouml.plugins.wdl.nextflow.NextFlowImporter;
+import ru.biosoft.util.ApplicationUtils;
+import ru.biosoft.util.TempFile;
+import ru.biosoft.util.TempFiles;
+import ru.genespace.content.CachedContentManager;
+import ru.genespace.content.SingleFlight;
+import ru.genespace.github.GitHubClientRegistry;
+import ru.genespace.github.GitHubManager;
+import ru.genespace.github.RateLimitHelper;
+
+/**
+ * Renders workflow diagrams of resource versions in a bounded pool and stores them as "DAG" attachment.
+ * Diagrams of imported repositories are queued right after import, so the first view usually finds the stored image.
+ * Requests for a diagram which is being rendered share the same future. A version whose diagram can not be drawn gets
+ * a "DAG" attachment without content, so it is not queued again until the version is replaced.
+ */
+@Singleton
+public class DagRenderService
+{
+    private static final Logger log = Logger.getLogger( DagRenderService.class.getName() );
+
+    public static final String DAG_FILE_NAME = "DAG";
+    public static final int DEFAULT_RENDER_THREADS = 2;
+    /**
+     * Description of the "DAG" attachment of a version whose diagram can not be drawn
+     */
+    public static final String NOT_DRAWABLE = "not drawable";
+    /**
+     * Languages with a diagram importer, the same as in {@link #renderRepository(long)}
+     */
+    private static final Set<String> DRAWABLE_LANGUAGES = Set.of( "WDL", "NFL" );
+
+    private final DbService db;
+    private final GitHubClientRegistry gitHubClients;
+    private final ExecutorService executor;
+    /**
+     * Rendering in progress by resource2versions.ID
+     */
+    private final SingleFlight<Long, BufferedImage> inFlight = new SingleFlight<>();
+
+    @Inject
+    public DagRenderService(DbService db, GitHubClientRegistry gitHubClients)
+    {
+        this.db = db;
+        this.gitHubClients = gitHubClients;
+        String threadsSetting = getSetting( "dag_render_threads" );
+        int threads = threadsSetting != null ? Math.max( 1, Integer.parseInt( threadsSetting ) ) : DEFAULT_RENDER_THREADS;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool( threads, runnable -> {
+            Thread thread = new Thread( () -> {
+                RateLimitHelper.setBackground( true );
+                runnable.run();
+            }, "dag-render-" + threadNumber.incrementAndGet() );
+            thread.setDaemon( true );
+            // rendering should not delay request threads
+            thread.setPriority( Thread.MIN_PRIORITY );
+            return thread;
+        } );
+    }
+
+    /**
+     * Queues diagrams of all resource versions of the repository which have no stored diagram yet and can be drawn
+     *
+     * @param repositoryId repositories.ID
+     */
+    public void renderRepository(long repositoryId)
+    {
+        for ( QRec rec : db.list( "SELECT r2v.ID AS \"ID\" FROM resource2versions r2v JOIN resources res ON res.ID=r2v.resource"
+                + " WHERE res.repository=? AND res.language IN ('WDL','NFL') AND NOT EXISTS (SELECT 1 FROM attachments a WHERE a.ownerType='resource2versions' AND a.ownerID=r2v.ID AND a.fileName=?)",
+                repositoryId, DAG_FILE_NAME ) )
+        {
+            render( rec.getLong( "ID" ) );
+        }
+    }
+
+    /**
+     * Starts rendering of the diagram or joins the one in progress. The image is stored before the future completes.
+     *
+     * @param resourceVersionId resource2versions.ID
+     * @return diagram image, null if the workflow can not be drawn
+     */
+    public CompletableFuture<BufferedImage> render(long resourceVersionId)
+    {
+        return inFlight.submit( resourceVersionId, () -> {
+            try
+            {
+                return renderAndStore( resourceVersionId );
+            }
+            catch (Exception e)
+            {
+                log.log( Level.SEVERE, "Can not render diagram of resource version " + resourceVersionId + ": " + e.getMessage() );
+                throw e;
+            }
+        }, executor );
+    }
+
+    private BufferedImage renderAndStore(long resourceVersionId) throws Exception
+    {
+        QRec info = db.recordWithParams( "SELECT r2v.primaryDescriptorPath AS primaryDescriptorPath, res.language AS language, repo.url AS repository, ver.name AS reference,"
+                + " (SELECT a.description FROM attachments a WHERE a.ownerType='resource2versions' AND a.ownerID=r2v.ID AND a.fileName=? AND a.isFetched='no') AS dagState"
+                + " FROM resource2versions r2v JOIN resources res ON res.ID=r2v.resource JOIN versions ver ON ver.ID=r2v.version"
+                + " JOIN repositories repo ON repo.ID=ver.repository WHERE r2v.ID=? ", DAG_FILE_NAME, resourceVersionId );
+        if( info == null || info.isEmpty() || NOT_DRAWABLE.equals( info.getString( "dagState" ) ) )
+            return null;
+        String primaryDescriptorPath = info.getString( "primaryDescriptorPath" );
+        String shortType = info.getString( "language" );
+        String repositoryName = info.getString( "repository" );
+        String reference = info.getString( "reference" );
+        if( reference == null )
+            reference = "main";
+        // checked before GitHub is used, there is no CWL importer yet
+        if( !DRAWABLE_LANGUAGES.contains( shortType ) )
+        {
+            log.info( "Diagrams of " + shortType + " workflows are not supported, resource version " + resourceVersionId );
+            markNotDrawable( resourceVersionId );
+            return null;
+        }
+
+        CachedContentManager cache = new CachedContentManager( db, resourceVersionId, "resource2versions" );
+        // render threads wait for GitHub quota like import jobs do
+        GitHubManager gitHubManager = gitHubClients.createManagerWhenAvailable();
+        gitHubManager.setCache( cache );
+        String workflowContent = gitHubManager.getWorkflowContent( repositoryName, reference, primaryDescriptorPath, shortType, cache );
+        if( workflowContent == null || workflowContent.isEmpty() )
+        {
+            markNotDrawable( resourceVersionId );
+            return null;
+        }
+        BufferedImage image;
+        try
+        {
+            Diagram diagram = generateDiagram( shortType, workflowContent, reference );
+            if( diagram == null )
+            {
+                markNotDrawable( resourceVersionId );
+                return null;
+            }
+            new WDLLayouter().layout( diagram );
+            image = DiagramImageGenerator.generateDiagramImage( diagram );
+        }
+        catch (Exception e)
+        {
+            // the same content fails again, it is not rendered until the version is replaced
+            log.log( Level.WARNING, "Can not draw diagram of resource version " + resourceVersionId + ": " + e.getMessage() );
+            markNotDrawable( resourceVersionId );
+            return null;
+        }
+        cache.setFileContent( DAG_FILE_NAME, image );
+        return image;
+    }
+
+    private static Diagram generateDiagram(String shortType, String workflowContent, String reference) throws Exception
+    {
+        switch (shortType)
+        {
+        case "WDL":
+            TempFile file = TempFiles.file( reference );
+            try
+            {
+                ApplicationUtils.writeString( file, workflowContent );
+                return new WDLImporter().generateDiagram( file, reference, null );
+            }
+            finally
+            {
+                file.delete();
+            }
+        case "NFL":
+            return new NextFlowImporter().importNextflow( workflowContent );
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Stores "DAG" attachment without content, so that the version is not queued again
+     */
+    private void markNotDrawable(long resourceVersionId)
+    {
+        db.update( "INSERT INTO attachments (ownerID, ownerType, fileName, mimeType, description, isFetched) VALUES (?,'resource2versions',?,'image/png',?,'no')"
+                + " ON CONFLICT (ownerID, ownerType, fileName) DO NOTHING", resourceVersionId, DAG_FILE_NAME, NOT_DRAWABLE );
+    }
+
+    private String getSetting(String name)
+    {
+        return db.getString( "SELECT setting_value FROM systemsettings WHERE section_name='registry' AND setting_name=?", name );
+    }
+}
@@ -1,17 +1,25 @@
 package ru.genespace.webserver;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.developmentontheedge.be5.database.DbService;
@@ -20,28 +28,36 @@ import com.developmentontheedge.be5.server.servlet.support.BaseControllerSupport
 import com.developmentontheedge.be5.web.Request;
 import com.developmentontheedge.be5.web.Response;
 
-import biouml.model.Diagram;
-import biouml.model.util.DiagramImageGenerator;
-import biouml.plugins.wdl.diagram.WDLImporter;
-import biouml.plugins.wdl.diagram.WDLLayouter;
-import biouml.plugins.wdl.nextflow.NextFlowImporter;
 import ru.biosoft.graphics.ImageGenerator;
 import ru.biosoft.server.servlets.webservices.BiosoftWebResponse;
 import ru.biosoft.server.servlets.webservices.JSONResponse;
-import ru.biosoft.util.ApplicationUtils;
-import ru.biosoft.util.TempFile;
-import ru.biosoft.util.TempFiles;
 import ru.biosoft.util.TextUtil2;
 import ru.genespace.content.CachedContentManager;
+import ru.genespace.content.SingleFlight;
 import ru.genespace.dockstore.languages.MarkdownHelper;
+import ru.genespace.github.GitHubClientRegistry;
 import ru.genespace.github.GitHubManager;
 
 public class WebserverController extends BaseControllerSupport
 {
     private static final Logger log = Logger.getLogger( WebserverController.class.getName() );
 
+    /**
+     * How long a request waits for the diagram rendered in background, after that the client is asked to retry
+     */
+    private static final long DAG_WAIT_SECONDS = 5;
+    private static final int DAG_RETRY_AFTER_SECONDS = 5;
+
     @Inject
     private DbService db;
+    @Inject
+    private DagRenderService dagRenderService;
+    @Inject
+    private GitHubClientRegistry gitHubClients;
+    /**
+     * GitHub reads of content missing in attachments, by owner, file and content kind
+     */
+    private final SingleFlight<String, String> contentLoads = new SingleFlight<>();
 
     @Override
     public void generate(Request request, Response response)
@@ -79,11 +95,11 @@ public class WebserverController extends BaseControllerSupport
 
                 if( subServlet.equals( "content" ) )
                 {
-                    processContent( convertParams( arguments ), resp );
+                    processContent( convertParams( arguments ), request.getRawRequest(), response.getRawResponse(), resp );
                 }
                 else if( subServlet.equals( "dag" ) )
                 {
-                    processDiagramImage( convertParams( arguments ), resp );
+                    processDiagramImage( convertParams( arguments ), request.getRawRequest(), response.getRawResponse(), resp );
                 }
 
             }
@@ -100,7 +116,7 @@ public class WebserverController extends BaseControllerSupport
     }
 
 
-    private void processContent(Map<String, String> arguments, BiosoftWebResponse resp) throws Exception
+    private void processContent(Map<String, String> arguments, HttpServletRequest request, HttpServletResponse rawResponse, BiosoftWebResponse resp) throws Exception
     {
         OutputStream out = resp.getOutputStream();
         resp.setContentType( "text/html" );
@@ -130,55 +146,56 @@ public class WebserverController extends BaseControllerSupport
 
             if( owner == null || ownertype == null || filepath == null )
             {
+                setNoStore( rawResponse );
                 log.log( Level.WARNING,
                         "Can not load file content. File name, owner type and id of either repository, resource, version or resource2version should be specified." );
                 return;
             }
             
             Long ownerId = Long.parseLong( owner );
-            
-            CachedContentManager cache = new CachedContentManager( db,ownerId , ownertype );
-            Object contentObj = cache.getFileContent( filepath );
-            if( contentObj == null )
+            QRec info = getGithubParams( ownerId, ownertype );
+            // repository and resource content is taken from one of its versions, so only version content is identified by commit
+            boolean versioned = ownertype.equals( "versions" ) || ownertype.equals( "resource2versions" );
+            String etag = versioned ? getETag( info, ownertype + "/" + ownerId + "/" + filepath + "/" + contentType ) : null;
+            if( isNotModified( request, rawResponse, info, etag ) )
             {
-                QRec info = getGithubParams( ownerId, ownertype );
-                String repositoryName = info.getString( "repository" );
-                String reference = info.getString( "reference" );
-
-                GitHubManager gitHubManager = getGithubManager();
-                content = gitHubManager.getFileContent( repositoryName, reference, filepath, null );
-                if( filepath.endsWith( "md" ) || "markdown".equals( contentType ) )
-                {
-                    URL repoURL = gitHubManager.getRepositoryURL( repositoryName );
-                    //Dirty: make absolute links to files from github 
-                    //variant 1: https://github.com/genespace-workflows/snv-calling/blob/main/***RELATIVE PATH TO IMAGE IN ORIGINAL MARKDOWN***?raw=true
-                    //variant 2: https://raw.githubusercontent.com/genespace-workflows/snv-calling/main/***RELATIVE PATH TO IMAGE IN ORIGINAL MARKDOWN***
-                    String repoUrlStr = repoURL.toString() + "/blob/" + reference + "/";
-                    content = MarkdownHelper.resolveRelativeImages( content, repoUrlStr, "?raw=true" );
-                }
-                if( content != null )
-                    cache.setFileContent( filepath, content );
+                return;
             }
-            else if( contentObj instanceof String )
+            
+            CachedContentManager cache = new CachedContentManager( db,ownerId , ownertype );
+            // stored content goes to the response as is
+            if( cache.copyFileContent( filepath, mimeType -> {
+                setValidators( rawResponse, info, etag );
+                return out;
+            } ) )
             {
-                content = (String) contentObj;
+                return;
             }
+
+            // concurrent requests of the same missing file wait for one GitHub read and one insert
+            content = contentLoads.execute( ownertype + "/" + ownerId + "/" + filepath + "/" + contentType,
+                    () -> loadContent( info, filepath, contentType, cache ) );
+            Writer writer = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
             if(content != null)
             {
+                setValidators( rawResponse, info, etag );
                 resp.setContentType( "text/html" );
-                out.write( content.getBytes( "utf-8" ) );
+                writer.write( content );
             }
             else
             {
                 //Error with file, send empty
+                setNoStore( rawResponse );
                 resp.setContentType( "text/html" );
-                String noFileContent = "Can not read " + filepath;
-                out.write( noFileContent.getBytes( "utf-8" ) );
+                writer.write( "Can not read " + filepath );
             }
+            writer.flush();
 
         }
         catch (Exception e)
         {
+            if( !rawResponse.isCommitted() )
+                setNoStore( rawResponse );
             log.log( Level.SEVERE, "Can not load file content. " + e.getMessage() );
         }
         finally
@@ -187,23 +204,101 @@ public class WebserverController extends BaseControllerSupport
         }
     }
 
+    private String loadContent(QRec info, String filepath, String contentType, CachedContentManager cache) throws Exception
+    {
+        String repositoryName = info.getString( "repository" );
+        String reference = info.getString( "reference" );
+
+        GitHubManager gitHubManager = getGithubManager();
+        String content = gitHubManager.getFileContent( repositoryName, reference, filepath, null );
+        if( filepath.endsWith( "md" ) || "markdown".equals( contentType ) )
+        {
+            URL repoURL = gitHubManager.getRepositoryURL( repositoryName );
+            //Dirty: make absolute links to files from github 
+            //variant 1: https://github.com/genespace-workflows/snv-calling/blob/main/***RELATIVE PATH TO IMAGE IN ORIGINAL MARKDOWN***?raw=true
+            //variant 2: https://raw.githubusercontent.com/genespace-workflows/snv-calling/main/***RELATIVE PATH TO IMAGE IN ORIGINAL MARKDOWN***
+            String repoUrlStr = repoURL.toString() + "/blob/" + reference + "/";
+            content = MarkdownHelper.resolveRelativeImages( content, repoUrlStr, "?raw=true" );
+        }
+        if( content != null )
+            cache.setFileContent( filepath, content );
+        return content;
+    }
+
+    /**
+     * ETag derived from the commit of the version and the requested item, so it changes only when the version is
+     * refreshed to another commit
+     *
+     * @param info record of {@link #getGithubParams(Long, String)}
+     * @param item identifies the content within the commit
+     * @return null if the version has no commit
+     */
+    private static String getETag(QRec info, String item)
+    {
+        String commit = info == null ? null : info.getString( "commit" );
+        if( commit == null )
+            return null;
+        return "\"" + commit + "-" + UUID.nameUUIDFromBytes( item.getBytes( StandardCharsets.UTF_8 ) ) + "\"";
+    }
+
+    /**
+     * @return true if the client already has this content, response is 304 then
+     */
+    private static boolean isNotModified(HttpServletRequest request, HttpServletResponse rawResponse, QRec info, String etag)
+    {
+        String ifNoneMatch = request.getHeader( "If-None-Match" );
+        if( etag == null || ifNoneMatch == null )
+            return false;
+        for ( String candidate : ifNoneMatch.split( "," ) )
+        {
+            String trimmed = candidate.trim();
+            if( trimmed.equals( etag ) || trimmed.equals( "*" ) )
+            {
+                setValidators( rawResponse, info, etag );
+                rawResponse.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets the client cache the response, called only right before the content itself is written. Tags can be moved by
+     * force push, so their content is revalidated after a while as well.
+     */
+    private static void setValidators(HttpServletResponse rawResponse, QRec info, String etag)
+    {
+        if( etag == null )
+            return;
+        rawResponse.setHeader( "ETag", etag );
+        rawResponse.setHeader( "Cache-Control", "tag".equals( info.getString( "type" ) ) ? "public, max-age=3600" : "no-cache" );
+    }
+
+    /**
+     * Errors and empty responses must not be cached
+     */
+    private static void setNoStore(HttpServletResponse rawResponse)
+    {
+        rawResponse.setHeader( "Cache-Control", "no-store" );
+    }
+
     private QRec getGithubParams(Long ownerId, String ownerType)
     {
         switch (ownerType)
         {
         case "repositories":
-            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference FROM versions ver JOIN repositories repo ON repo.ID=ver.repository WHERE repo.ID=? ",
-                    ownerId );
+            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference, ver.commit AS commit, ver.type AS type"
+                    + " FROM versions ver JOIN repositories repo ON repo.ID=ver.repository WHERE repo.ID=? ", ownerId );
         case "versions":
-            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference FROM versions ver JOIN repositories repo ON repo.ID=ver.repository WHERE ver.ID=? ",
-                    ownerId );
+            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference, ver.commit AS commit, ver.type AS type"
+                    + " FROM versions ver JOIN repositories repo ON repo.ID=ver.repository WHERE ver.ID=? ", ownerId );
         case "resources":
-            return db.recordWithParams(
-                    "SELECT repo.url AS repository, ver.name as reference FROM resources res JOIN repositories repo ON repo.ID=res.repository JOIN resource2versions ON res.ID=r2v.resource JOIN versions ver ON r2v.version=ver.ID WHERE res.ID=? ",
-                    ownerId );
+            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference, ver.commit AS commit, ver.type AS type"
+                    + " FROM resources res JOIN repositories repo ON repo.ID=res.repository JOIN resource2versions r2v ON res.ID=r2v.resource"
+                    + " JOIN versions ver ON r2v.version=ver.ID WHERE res.ID=? ", ownerId );
         case "resource2versions":
-            return db.recordWithParams(
-                    "SELECT repo.url AS repository, ver.name as reference FROM resource2versions r2v JOIN versions ver ON r2v.version=ver.ID JOIN repositories repo ON ver.repository=repo.ID WHERE r2v.ID=? ",
+            return db.recordWithParams( "SELECT repo.url AS repository, ver.name as reference, ver.commit AS commit, ver.type AS type"
+                    + " FROM resource2versions r2v JOIN versions ver ON r2v.version=ver.ID JOIN repositories repo ON ver.repository=repo.ID WHERE r2v.ID=? ",
                     ownerId );
         default:
             return null;
@@ -212,80 +307,68 @@ public class WebserverController extends BaseControllerSupport
 
     private GitHubManager getGithubManager()
     {
-        String githubUser = db.getString( "SELECT setting_value FROM systemsettings WHERE section_name='registry' AND setting_name='github_user'" );
-        String githubToken = db.getString( "SELECT setting_value FROM systemsettings WHERE section_name='registry' AND setting_name='github_token'" );
-        GitHubManager gitHubManager = new GitHubManager( githubUser, githubToken );
-        return gitHubManager;
+        return gitHubClients.createManager();
     }
 
-    private void processDiagramImage(Map<String, String> arguments, BiosoftWebResponse resp) throws Exception
+    private void processDiagramImage(Map<String, String> arguments, HttpServletRequest request, HttpServletResponse rawResponse, BiosoftWebResponse resp) throws Exception
     {
         OutputStream out = resp.getOutputStream();
         try
         {
             Long versionId = Long.parseLong( arguments.get( "version" ) );
             Long resourceId = Long.parseLong( arguments.get( "resource" ) );
-            QRec info = db.recordWithParams(
-                    "SELECT r2v.primaryDescriptorPath AS primaryDescriptorPath, res.language AS language, r2v.ID as ownerId FROM resource2versions r2v "
-                            + "JOIN resources res ON res.ID=r2v.resource JOIN repositories repo ON repo.ID=res.repository JOIN versions ver ON ver.ID=r2v.version"
-                            + " WHERE r2v.resource=? AND r2v.version=? ",
-                    resourceId, versionId );
-            String primaryDescriptorPath = info.getString( "primaryDescriptorPath" );
-            String shortType = info.getString( "language" );
+            QRec info = db.recordWithParams( "SELECT r2v.ID as ownerId FROM resource2versions r2v WHERE r2v.resource=? AND r2v.version=? ", resourceId, versionId );
             Long ownerId = info.getLong( "ownerId" );
-
-            CachedContentManager cache = new CachedContentManager( db, ownerId, "resource2versions" );
-            String imageFilePath = "DAG";
-            Object imageObj = cache.getFileContent( imageFilePath );
-            if( imageObj != null && imageObj instanceof BufferedImage )
+            QRec info2 = getGithubParams( ownerId, "resource2versions" );
+            String etag = getETag( info2, "resource2versions/" + ownerId + "/DAG" );
+            if( isNotModified( request, rawResponse, info2, etag ) )
             {
-                resp.setContentType( "image/png" );
-                ImageGenerator.encodeImage( (BufferedImage) imageObj, "PNG", out );
                 return;
             }
-            
-            QRec info2 = getGithubParams( ownerId, "resource2versions" );
-            String repositoryName = info2.getString( "repository" );
-            String reference = info2.getString( "reference" );
-            if( reference == null )
-                reference = "main";
-            GitHubManager gitHubManager = getGithubManager();
-            gitHubManager.setCache( cache );
-            String workflowContent = gitHubManager.getWorkflowContent( repositoryName, reference, primaryDescriptorPath, shortType, cache );
-            if( workflowContent == null || workflowContent.isEmpty() )
+
+            CachedContentManager cache = new CachedContentManager( db, ownerId, "resource2versions" );
+            // stored PNG is sent without decoding and encoding the image again
+            if( cache.copyFileContent( DagRenderService.DAG_FILE_NAME, mimeType -> {
+                setValidators( rawResponse, info2, etag );
+                resp.setContentType( mimeType );
+                return out;
+            } ) )
             {
                 return;
             }
-            TempFile file = TempFiles.file( reference );
-            ApplicationUtils.writeString( file, workflowContent );
-            Diagram diagram = null;
 
-            switch (shortType)
+            // rendered once, concurrent requests wait for the same rendering
+            BufferedImage image;
+            try
             {
-            case "WDL":
-                WDLImporter importerWDL = new WDLImporter();
-                diagram = importerWDL.generateDiagram( file, reference, null );
-                break;
-            case "CWL":
-
-            case "NFL":
-                NextFlowImporter importerNFL = new NextFlowImporter();
-                diagram = importerNFL.importNextflow( workflowContent );
-                break;
+                image = dagRenderService.render( ownerId ).get( DAG_WAIT_SECONDS, TimeUnit.SECONDS );
             }
-            if( diagram != null )
+            catch (TimeoutException e)
             {
-                new WDLLayouter().layout( diagram );
+                // rendering goes on in background, the servlet thread is not held for it
+                setNoStore( rawResponse );
+                rawResponse.setHeader( "Retry-After", String.valueOf( DAG_RETRY_AFTER_SECONDS ) );
+                rawResponse.setStatus( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+                return;
+            }
+            if( image != null )
+            {
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                ImageGenerator.encodeImage( image, "PNG", png );
+                setValidators( rawResponse, info2, etag );
                 resp.setContentType( "image/png" );
-                BufferedImage image = DiagramImageGenerator.generateDiagramImage( diagram );
-                ImageGenerator.encodeImage( image, "PNG", out );
-                
-                cache.setFileContent( imageFilePath, image );
+                png.writeTo( out );
+            }
+            else
+            {
+                setNoStore( rawResponse );
             }
 
         }
         catch (Exception e)
         {
+            if( !rawResponse.isCommitted() )
+                setNoStore( rawResponse );
             log.log( Level.SEVERE, "Can not load file content. " + e.getMessage() );
         }
         finally
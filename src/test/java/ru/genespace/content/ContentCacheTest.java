@@ -0,0 +1,64 @@
+package ru.genespace.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ContentCacheTest
+{
+    @Test
+    public void contentReadBeforeInvalidationIsNotCached()
+    {
+        ContentCache cache = new ContentCache( 1024 );
+        long generation = cache.getGeneration();
+        // the file is replaced while the old content is being read
+        cache.invalidate( "versions", 1, "README.md" );
+        cache.put( "versions", 1, "README.md", content( "old" ), generation );
+
+        assertNull( cache.get( "versions", 1, "README.md" ) );
+        assertEquals( 0, cache.getBytes() );
+    }
+
+    @Test
+    public void invalidationOfOwnerStopsPendingPuts()
+    {
+        ContentCache cache = new ContentCache( 1024 );
+        long generation = cache.getGeneration();
+        cache.invalidate( "repositories", 1 );
+        cache.put( "repositories", 1, "dag.png", content( "old" ), generation );
+
+        assertNull( cache.get( "repositories", 1, "dag.png" ) );
+    }
+
+    @Test
+    public void contentReadAfterInvalidationIsCached()
+    {
+        ContentCache cache = new ContentCache( 1024 );
+        cache.invalidate( "versions", 1, "README.md" );
+        ContentCache.Content content = content( "new" );
+        cache.put( "versions", 1, "README.md", content, cache.getGeneration() );
+
+        assertSame( content, cache.get( "versions", 1, "README.md" ) );
+        assertEquals( 3, cache.getBytes() );
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted()
+    {
+        ContentCache cache = new ContentCache( 10 );
+        cache.put( "versions", 1, "a", content( "aaaa" ), cache.getGeneration() );
+        cache.put( "versions", 1, "b", content( "bbbb" ), cache.getGeneration() );
+        cache.get( "versions", 1, "a" );
+        cache.put( "versions", 1, "c", content( "cccc" ), cache.getGeneration() );
+
+        assertNull( cache.get( "versions", 1, "b" ) );
+        assertEquals( 8, cache.getBytes() );
+    }
+
+    private static ContentCache.Content content(String text)
+    {
+        return new ContentCache.Content( "text/plain", text.getBytes() );
+    }
+}
@@ -0,0 +1,158 @@
+package ru.genespace.content;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest
+{
+    @Test(timeout = 10_000)
+    public void concurrentCallersShareOneLoad() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        AtomicInteger calls = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<String> first = executor.submit( () -> flight.execute( "key", () -> {
+                calls.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return "value";
+            } ) );
+            loading.await();
+            Future<String> second = startWaiter( () -> flight.execute( "key", () -> "value" + calls.incrementAndGet() ) );
+            release.countDown();
+
+            assertEquals( "value", first.get( 5, TimeUnit.SECONDS ) );
+            assertEquals( "value", second.get( 5, TimeUnit.SECONDS ) );
+            assertEquals( 1, calls.get() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void loaderFailureReachesWaitersAndReleasesKey() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch( 1 );
+        CountDownLatch fail = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<String> loader = executor.submit( () -> flight.execute( "key", () -> {
+                loading.countDown();
+                fail.await();
+                throw new IOException( "rate limit" );
+            } ) );
+            loading.await();
+            Future<String> waiter = startWaiter( () -> flight.execute( "key", () -> "not called" ) );
+            fail.countDown();
+
+            assertFailsWith( loader, "rate limit" );
+            assertFailsWith( waiter, "rate limit" );
+            assertEquals( "value", flight.execute( "key", () -> "value" ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void submittedFailureReleasesKey() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> failed = flight.submit( "key", () -> {
+            throw new IOException( "abuse limit" );
+        }, Runnable::run );
+        assertTrue( failed.isCompletedExceptionally() );
+
+        assertEquals( "value", flight.submit( "key", () -> "value", Runnable::run ).get() );
+    }
+
+    @Test
+    public void rejectedSubmitFailsAndReleasesKey() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> rejected = flight.submit( "key", () -> "not called", runnable -> {
+            throw new RejectedExecutionException( "shut down" );
+        } );
+        try
+        {
+            rejected.get( 1, TimeUnit.SECONDS );
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue( e.getCause() instanceof RejectedExecutionException );
+        }
+
+        assertEquals( "value", flight.submit( "key", () -> "value", Runnable::run ).get() );
+    }
+
+    @Test
+    public void submitJoinsLoadInProgress()
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        Runnable[] queued = new Runnable[1];
+        CompletableFuture<String> first = flight.submit( "key", () -> "value", runnable -> queued[0] = runnable );
+        CompletableFuture<String> second = flight.submit( "key", () -> "other", Runnable::run );
+
+        assertSame( first, second );
+        queued[0].run();
+        assertEquals( "value", second.join() );
+    }
+
+    /**
+     * @return future of the call, which is blocked waiting for a load in progress when this method returns
+     */
+    private static Future<String> startWaiter(Callable<String> call) throws InterruptedException
+    {
+        FutureTask<String> task = new FutureTask<>( call );
+        Thread thread = new Thread( task );
+        thread.start();
+        while( thread.getState() != Thread.State.WAITING && !task.isDone() )
+            Thread.sleep( 10 );
+        return task;
+    }
+
+    private static void assertFailsWith(Future<?> future, String message) throws InterruptedException
+    {
+        try
+        {
+            future.get( 5, TimeUnit.SECONDS );
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertEquals( message, e.getCause().getMessage() );
+        }
+        catch (TimeoutException e)
+        {
+            fail( "caller is still waiting for the failed load" );
+        }
+    }
+}
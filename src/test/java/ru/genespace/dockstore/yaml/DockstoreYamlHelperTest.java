@@ -0,0 +1,45 @@
+package ru.genespace.dockstore.yaml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import ru.genespace.dockstore.yaml.DockstoreYamlHelper.DockstoreYamlException;
+
+public class DockstoreYamlHelperTest {
+
+    private static final String WORKFLOW = """
+            version: 1.2
+            workflows:
+              - subclass: WDL
+                primaryDescriptorPath: /main.wdl
+            """;
+
+    @Test
+    public void readsWorkflow() throws DockstoreYamlException {
+        DockstoreYaml12 yaml = DockstoreYamlHelper.readAsDockstoreYaml12(WORKFLOW);
+        assertEquals(1, yaml.getWorkflows().size());
+        assertEquals("/main.wdl", yaml.getWorkflows().get(0).getPrimaryDescriptorPath());
+    }
+
+    @Test
+    public void duplicateKeyIsRejected() {
+        assertDuplicateKeyRejected(WORKFLOW + "    primaryDescriptorPath: /other.wdl\n");
+    }
+
+    @Test
+    public void duplicateTopLevelKeyIsRejected() {
+        assertDuplicateKeyRejected(WORKFLOW + "version: 1.2\n");
+    }
+
+    private static void assertDuplicateKeyRejected(String content) {
+        try {
+            DockstoreYamlHelper.readAsDockstoreYaml12(content);
+            fail("duplicate key is accepted");
+        } catch (DockstoreYamlException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("duplicate key"));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.genespace.github;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class ConcurrencyLimitInterceptorTest
+{
+    private static final Request REQUEST = new Request.Builder().url( "https://api.github.com/repos/owner/repo" ).build();
+
+    @Test
+    public void permitIsHeldUntilBodyIsClosed() throws IOException
+    {
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor( 2 );
+        Response response = interceptor.intercept( chain( null ) );
+        assertEquals( 1, interceptor.getAvailablePermits() );
+
+        assertEquals( "body", response.body().string() );
+        assertEquals( 2, interceptor.getAvailablePermits() );
+        response.close();
+        assertEquals( 2, interceptor.getAvailablePermits() );
+    }
+
+    @Test
+    public void failedRequestReleasesPermit()
+    {
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor( 1 );
+        try
+        {
+            interceptor.intercept( chain( new IOException( "connection reset" ) ) );
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals( "connection reset", e.getMessage() );
+        }
+        assertEquals( 1, interceptor.getAvailablePermits() );
+    }
+
+    @Test
+    public void interruptedWaitFails() throws IOException
+    {
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor( 1 );
+        Response response = interceptor.intercept( chain( null ) );
+        Thread.currentThread().interrupt();
+        try
+        {
+            interceptor.intercept( chain( null ) );
+            fail();
+        }
+        catch (InterruptedIOException e)
+        {
+            // cancelled import job stops instead of waiting for a connection
+        }
+        finally
+        {
+            assertEquals( true, Thread.interrupted() );
+        }
+        response.close();
+        assertEquals( 1, interceptor.getAvailablePermits() );
+        assertFalse( Thread.currentThread().isInterrupted() );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroLimitIsRejected()
+    {
+        new ConcurrencyLimitInterceptor( 0 );
+    }
+
+    /**
+     * @param failure thrown by proceed instead of returning a response, if not null
+     */
+    private static Interceptor.Chain chain(IOException failure)
+    {
+        return (Interceptor.Chain)Proxy.newProxyInstance( Interceptor.Chain.class.getClassLoader(), new Class<?>[] {Interceptor.Chain.class}, (proxy, method, args) -> {
+            switch (method.getName())
+            {
+            case "request":
+                return REQUEST;
+            case "proceed":
+                if( failure != null )
+                    throw failure;
+                return new Response.Builder().request( REQUEST ).protocol( Protocol.HTTP_1_1 ).code( 200 ).message( "OK" )
+                        .body( ResponseBody.create( "body", null ) ).build();
+            default:
+                throw new UnsupportedOperationException( method.getName() );
+            }
+        } );
+    }
+}
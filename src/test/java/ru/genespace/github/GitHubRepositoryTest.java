@@ -0,0 +1,245 @@
+package ru.genespace.github;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.kohsuke.github.GitHub;
+
+import ru.genespace.dockstore.yaml.DockstoreYamlHelper;
+
+public class GitHubRepositoryTest
+{
+    @Test
+    public void loadSharedRunsLoaderOnce()
+    {
+        Map<String, CompletableFuture<String>> loaded = new LinkedHashMap<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals( "value1", GitHubRepository.loadShared( loaded, "key", () -> "value" + calls.incrementAndGet() ) );
+        assertEquals( "value1", GitHubRepository.loadShared( loaded, "key", () -> "value" + calls.incrementAndGet() ) );
+        assertEquals( 1, calls.get() );
+    }
+
+    @Test
+    public void failedLoadIsRemovedAndRetried()
+    {
+        Map<String, CompletableFuture<String>> loaded = new LinkedHashMap<>();
+        try
+        {
+            GitHubRepository.loadShared( loaded, "key", () -> {
+                throw new IllegalStateException( "rate limit" );
+            } );
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals( "rate limit", e.getMessage() );
+        }
+        assertTrue( loaded.isEmpty() );
+        assertEquals( "value", GitHubRepository.loadShared( loaded, "key", () -> "value" ) );
+    }
+
+    @Test(timeout = 10_000)
+    public void waitingCallerGetsFailureInsteadOfHanging() throws Exception
+    {
+        Map<String, CompletableFuture<String>> loaded = Collections.synchronizedMap( new LinkedHashMap<>() );
+        CountDownLatch loading = new CountDownLatch( 1 );
+        CountDownLatch fail = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            Future<String> loader = executor.submit( () -> GitHubRepository.loadShared( loaded, "key", () -> {
+                loading.countDown();
+                await( fail );
+                throw new IllegalStateException( "abuse limit" );
+            } ) );
+            loading.await();
+            Future<String> waiter = executor.submit( () -> GitHubRepository.loadShared( loaded, "key", () -> "not called" ) );
+            // the waiter is blocked on the future of the load in progress
+            while( loaded.get( "key" ).getNumberOfDependents() == 0 )
+                Thread.sleep( 10 );
+            fail.countDown();
+            assertFailsWith( loader, "abuse limit" );
+            assertFailsWith( waiter, "abuse limit" );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedArchiveDownloadIsRetried() throws IOException
+    {
+        GitHubRepository repository = new GitHubRepository( (GitHub)null, null );
+        RepositoryArchive archive = archive( 10 );
+        AtomicInteger calls = new AtomicInteger();
+        GitHubRepository.ArchiveReader reader = () -> {
+            if( calls.incrementAndGet() == 1 )
+                throw new IOException( "connection reset" );
+            return archive;
+        };
+
+        assertNull( repository.getArchive( "key", reader ) );
+        assertSame( archive, repository.getArchive( "key", reader ) );
+        assertSame( archive, repository.getArchive( "key", reader ) );
+        assertEquals( 2, calls.get() );
+        assertEquals( 10, repository.getArchiveBytes() );
+    }
+
+    @Test
+    public void tooLargeArchiveIsNotDownloadedAgain()
+    {
+        GitHubRepository repository = new GitHubRepository( (GitHub)null, null );
+        AtomicInteger calls = new AtomicInteger();
+        GitHubRepository.ArchiveReader reader = () -> {
+            calls.incrementAndGet();
+            throw new IOException( "server error", new RepositoryArchive.TooLargeException( "too large" ) );
+        };
+
+        assertNull( repository.getArchive( "key", reader ) );
+        assertNull( repository.getArchive( "key", reader ) );
+        assertEquals( 1, calls.get() );
+        assertEquals( 0, repository.getArchiveBytes() );
+    }
+
+    @Test
+    public void archiveIsKeptUntilReleased() throws IOException
+    {
+        GitHubRepository repository = new GitHubRepository( (GitHub)null, null );
+        AtomicInteger calls = new AtomicInteger();
+        GitHubRepository.ArchiveReader reader = () -> {
+            calls.incrementAndGet();
+            return archive( 10 );
+        };
+
+        RepositoryArchive archive = repository.getArchive( "key", reader );
+        assertSame( archive, repository.getArchive( "key", reader ) );
+        repository.releaseArchive( "key" );
+        assertEquals( 0, repository.getArchiveBytes() );
+        assertNotSame( archive, repository.getArchive( "key", reader ) );
+        assertEquals( 2, calls.get() );
+    }
+
+    @Test(timeout = 10_000)
+    public void downloadsInProgressCountAgainstMemoryLimit() throws Exception
+    {
+        GitHubRepository repository = new GitHubRepository( (GitHub)null, null );
+        int downloads = (int)(GitHubRepository.MAXIMUM_ARCHIVES_BYTES_IN_MEMORY / GitHubRepository.MAXIMUM_ARCHIVE_SIZE);
+        CountDownLatch started = new CountDownLatch( downloads );
+        CountDownLatch finish = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( downloads );
+        try
+        {
+            for ( int i = 0; i < downloads; i++ )
+            {
+                String key = "key" + i;
+                executor.submit( () -> repository.getArchive( key, () -> {
+                    started.countDown();
+                    await( finish );
+                    return archive( 10 );
+                } ) );
+            }
+            started.await();
+            assertEquals( GitHubRepository.MAXIMUM_ARCHIVES_BYTES_IN_MEMORY, repository.getArchiveBytes() );
+
+            // no memory is left, the caller falls back to Contents API and the next one tries again
+            assertNull( repository.getArchive( "other", () -> archive( 10 ) ) );
+            finish.countDown();
+            executor.shutdown();
+            assertTrue( executor.awaitTermination( 5, TimeUnit.SECONDS ) );
+            assertEquals( downloads * 10L, repository.getArchiveBytes() );
+            assertNotNull( repository.getArchive( "other", () -> archive( 10 ) ) );
+
+            repository.releaseReferenceContents();
+            assertEquals( 0, repository.getArchiveBytes() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void dockstoreYamlErrorKeepsCause()
+    {
+        GitHubRepository repository = new GitHubRepository( (GitHub)null, null );
+        String content = "version: 1.2\nworkflows: [\n";
+        DockstoreYamlHelper.DockstoreYamlException first = readInvalid( repository, content );
+        DockstoreYamlHelper.DockstoreYamlException second = readInvalid( repository, content );
+
+        // the parse error is kept, each caller gets its own exception caused by it
+        assertNotSame( first, second );
+        assertSame( first.getCause(), second.getCause() );
+        assertNotNull( first.getCause().getCause() );
+        assertEquals( first.getCause().getMessage(), first.getMessage() );
+    }
+
+    private static DockstoreYamlHelper.DockstoreYamlException readInvalid(GitHubRepository repository, String content)
+    {
+        try
+        {
+            repository.readDockstoreYaml12( content, false );
+            fail();
+            return null;
+        }
+        catch (DockstoreYamlHelper.DockstoreYamlException e)
+        {
+            return e;
+        }
+    }
+
+    private static RepositoryArchive archive(int size) throws IOException
+    {
+        return RepositoryArchive.read( RepositoryArchiveTest.tarGz( RepositoryArchiveTest.file( "file", "x".repeat( size ) ) ), size );
+    }
+
+    private static void assertFailsWith(Future<?> future, String message) throws InterruptedException
+    {
+        try
+        {
+            future.get( 5, TimeUnit.SECONDS );
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertEquals( message, e.getCause().getMessage() );
+        }
+        catch (TimeoutException e)
+        {
+            fail( "caller is still waiting for the failed load" );
+        }
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.genespace.github;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.Test;
+
+public class RepositoryArchiveTest
+{
+    @Test
+    public void readsFilesAndListsDirectories() throws IOException
+    {
+        RepositoryArchive archive = RepositoryArchive.read( tarGz( file( "README.md", "readme" ), file( "wdl/main.wdl", "workflow" ) ), 1024 );
+
+        assertEquals( "readme", archive.readFile( "/README.md" ) );
+        assertEquals( "workflow", archive.readFile( "wdl/main.wdl" ) );
+        assertEquals( List.of( "README.md", "wdl" ), archive.listFiles( "/" ) );
+        assertEquals( 14, archive.getSize() );
+    }
+
+    @Test
+    public void resolvesSymlinkInsideRepository() throws IOException
+    {
+        RepositoryArchive archive = RepositoryArchive.read( tarGz( file( "wdl/main.wdl", "workflow" ), symlink( "link", "wdl" ) ), 1024 );
+
+        assertEquals( "workflow", archive.readFile( "link/main.wdl" ) );
+        assertEquals( List.of( "main.wdl" ), archive.listFiles( "link" ) );
+    }
+
+    @Test
+    public void symlinkOutsideRepositoryIsNotFound() throws IOException
+    {
+        RepositoryArchive archive = RepositoryArchive.read( tarGz( file( "README.md", "readme" ), symlink( "escape", ".." ), symlink( "dir/up", "../../etc" ) ),
+                1024 );
+
+        assertNull( archive.listFiles( "escape" ) );
+        assertNull( archive.readFile( "escape/README.md" ) );
+        assertNull( archive.listFiles( "dir/up" ) );
+    }
+
+    @Test(expected = IOException.class)
+    public void archiveOverLimitIsRejected() throws IOException
+    {
+        RepositoryArchive.read( tarGz( file( "a", "0123456789" ), file( "b", "0123456789" ) ), 15 );
+    }
+
+    record Entry(String path, String content, String linkTarget)
+    {
+    }
+
+    static Entry file(String path, String content)
+    {
+        return new Entry( path, content, null );
+    }
+
+    static Entry symlink(String path, String target)
+    {
+        return new Entry( path, null, target );
+    }
+
+    /**
+     * @return gzipped tarball with entries under a single top level directory, as GitHub produces it
+     */
+    static InputStream tarGz(Entry... entries) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream( new GZIPOutputStream( bytes ) ))
+        {
+            for ( Entry entry : entries )
+            {
+                String name = "owner-repo-0123456/" + entry.path();
+                if( entry.linkTarget() != null )
+                {
+                    TarArchiveEntry link = new TarArchiveEntry( name, TarArchiveEntry.LF_SYMLINK );
+                    link.setLinkName( entry.linkTarget() );
+                    tar.putArchiveEntry( link );
+                }
+                else
+                {
+                    byte[] data = entry.content().getBytes( StandardCharsets.UTF_8 );
+                    TarArchiveEntry file = new TarArchiveEntry( name );
+                    file.setSize( data.length );
+                    tar.putArchiveEntry( file );
+                    tar.write( data );
+                }
+                tar.closeArchiveEntry();
+            }
+        }
+        return new ByteArrayInputStream( bytes.toByteArray() );
+    }
+}
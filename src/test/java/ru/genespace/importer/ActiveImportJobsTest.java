@@ -0,0 +1,99 @@
+package ru.genespace.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ActiveImportJobsTest
+{
+    @Test(timeout = 10_000)
+    public void cancelInterruptsWorker() throws Exception
+    {
+        ActiveImportJobs jobs = new ActiveImportJobs();
+        ActiveImportJobs.Job job = jobs.add( 1, 10 );
+        CountDownLatch started = new CountDownLatch( 1 );
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread worker = new Thread( () -> {
+            try
+            {
+                job.start();
+                started.countDown();
+                Thread.sleep( 60_000 );
+            }
+            catch (InterruptedException e)
+            {
+                interrupted.set( true );
+            }
+            finally
+            {
+                jobs.remove( job );
+            }
+        } );
+        worker.start();
+        started.await();
+
+        assertTrue( jobs.cancel( 1 ) );
+        assertTrue( job.awaitFinished( 5, TimeUnit.SECONDS ) );
+        assertTrue( interrupted.get() );
+        assertTrue( job.isCancelled() );
+        assertEquals( 0, jobs.size() );
+    }
+
+    @Test
+    public void storingJobIsNotCancelled() throws Exception
+    {
+        ActiveImportJobs jobs = new ActiveImportJobs();
+        ActiveImportJobs.Job job = jobs.add( 1, 10 );
+        job.start();
+        job.beginStoring();
+
+        assertFalse( jobs.cancel( 1 ) );
+        assertFalse( job.isCancelled() );
+        assertFalse( Thread.interrupted() );
+        assertFalse( job.awaitFinished( 10, TimeUnit.MILLISECONDS ) );
+
+        jobs.remove( job );
+        assertTrue( job.awaitFinished( 0, TimeUnit.MILLISECONDS ) );
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledJobDoesNotStore()
+    {
+        ActiveImportJobs jobs = new ActiveImportJobs();
+        ActiveImportJobs.Job job = jobs.add( 1, 10 );
+        jobs.cancel( 1 );
+        job.beginStoring();
+    }
+
+    @Test(expected = CancellationException.class)
+    public void jobCancelledBeforeStartIsNotRun()
+    {
+        ActiveImportJobs jobs = new ActiveImportJobs();
+        ActiveImportJobs.Job job = jobs.add( 1, 10 );
+        jobs.cancel( 1 );
+        job.start();
+    }
+
+    @Test
+    public void jobsAreFoundByRepository()
+    {
+        ActiveImportJobs jobs = new ActiveImportJobs();
+        ActiveImportJobs.Job first = jobs.add( 1, 10 );
+        jobs.add( 2, 20 );
+        ActiveImportJobs.Job third = jobs.add( 3, 10 );
+
+        List<ActiveImportJobs.Job> repositoryJobs = jobs.getRepositoryJobs( 10 );
+        assertEquals( 2, repositoryJobs.size() );
+        assertTrue( repositoryJobs.contains( first ) );
+        assertTrue( repositoryJobs.contains( third ) );
+        assertFalse( jobs.cancel( 4 ) );
+    }
+}